@@ -0,0 +1,179 @@
+package edu.berkeley.cs186.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The tables or indexes of a Database by name. Names found on disk are registered without
+ * opening their files; each entry is opened the first time it is looked up, and closed again
+ * once it has not been looked up for the idle timeout and is not in use, so that only the hot
+ * entries hold file descriptors and buffer frames. Idle entries are closed during lookups, at
+ * most once per timeout, or by calling closeIdle.
+ *
+ * Properties:
+ * `names`: the names of all entries, open or not
+ * `open`: the open entries by name
+ * `lastAccess`: the time in milliseconds each open entry was last looked up
+ * `idleTimeoutMillis`: how long an entry may go without a lookup before it may be closed
+ * `lastSweep`: the time in milliseconds idle entries were last closed
+ *
+ * @param <T> the type of the entries
+ */
+abstract class Catalog<T> {
+  private Set<String> names;
+  private Map<String, T> open;
+  private Map<String, Long> lastAccess;
+  private long idleTimeoutMillis;
+  private long lastSweep;
+
+  Catalog(long idleTimeoutMillis) {
+    this.names = new HashSet<String>();
+    this.open = new HashMap<String, T>();
+    this.lastAccess = new HashMap<String, Long>();
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.lastSweep = System.currentTimeMillis();
+  }
+
+  /**
+   * Opens the existing entry called name.
+   */
+  protected abstract T open(String name);
+
+  /**
+   * Closes entry, either for now if remove is false or because it is being removed.
+   */
+  protected abstract void close(String name, T entry, boolean remove);
+
+  /**
+   * @return true if entry may still be used even though it has not been looked up lately
+   */
+  protected abstract boolean inUse(String name);
+
+  /**
+   * Records an entry that exists on disk without opening it.
+   */
+  synchronized void register(String name) {
+    this.names.add(name);
+  }
+
+  /**
+   * Adds an entry that has just been created and is already open.
+   */
+  synchronized void put(String name, T entry) {
+    this.names.add(name);
+    this.open.put(name, entry);
+    this.lastAccess.put(name, System.currentTimeMillis());
+  }
+
+  synchronized boolean contains(String name) {
+    return this.names.contains(name);
+  }
+
+  /**
+   * Looks up an entry, opening it if it is not open.
+   *
+   * @param name the name of the entry
+   * @return the entry, or null if there is no entry called name
+   */
+  synchronized T get(String name) {
+    if (!this.names.contains(name)) {
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+    T entry = this.open.get(name);
+    if (entry == null) {
+      entry = this.open(name);
+      this.open.put(name, entry);
+    }
+    this.lastAccess.put(name, now);
+
+    if (now - this.lastSweep >= this.idleTimeoutMillis) {
+      this.closeIdle(name);
+    }
+    return entry;
+  }
+
+  /**
+   * Removes an entry, closing it if it is open.
+   *
+   * @return true if there was an entry called name
+   */
+  synchronized boolean remove(String name) {
+    if (!this.names.remove(name)) {
+      return false;
+    }
+    T entry = this.open.remove(name);
+    this.lastAccess.remove(name);
+    if (entry != null) {
+      this.close(name, entry, true);
+    }
+    return true;
+  }
+
+  synchronized List<String> getNames() {
+    return new ArrayList<String>(this.names);
+  }
+
+  synchronized List<String> getOpenNames() {
+    return new ArrayList<String>(this.open.keySet());
+  }
+
+  synchronized int getNumOpen() {
+    return this.open.size();
+  }
+
+  synchronized void setIdleTimeout(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
+
+  /**
+   * Closes the open entries that have not been looked up for the idle timeout and are not in
+   * use. They are opened again when they are next looked up.
+   *
+   * @return the number of entries closed
+   */
+  synchronized int closeIdle() {
+    return this.closeIdle(null);
+  }
+
+  /**
+   * Closes the idle entries other than the one called except, which is being looked up.
+   */
+  private int closeIdle(String except) {
+    long now = System.currentTimeMillis();
+    this.lastSweep = now;
+
+    List<String> idle = new ArrayList<String>();
+    for (Map.Entry<String, Long> access : this.lastAccess.entrySet()) {
+      if (access.getKey().equals(except)) {
+        continue;
+      }
+      if (now - access.getValue() >= this.idleTimeoutMillis && !this.inUse(access.getKey())) {
+        idle.add(access.getKey());
+      }
+    }
+
+    for (String name : idle) {
+      this.lastAccess.remove(name);
+      this.close(name, this.open.remove(name), false);
+    }
+    return idle.size();
+  }
+
+  /**
+   * Closes every open entry and forgets every name.
+   */
+  synchronized void closeAll() {
+    for (Map.Entry<String, T> entry : this.open.entrySet()) {
+      this.close(entry.getKey(), entry.getValue(), false);
+    }
+    this.open.clear();
+    this.lastAccess.clear();
+    this.names.clear();
+  }
+}
@@ -1,27 +1,36 @@
 package edu.berkeley.cs186.database;
 
 import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.datatypes.IntDataType;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.query.QueryPlanException;
+import edu.berkeley.cs186.database.query.SequentialScanOperator;
+import edu.berkeley.cs186.database.query.SortOperator;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.index.BPlusTree;
+import edu.berkeley.cs186.database.index.BPlusTreeException;
+import edu.berkeley.cs186.database.index.LeafEntry;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
+import edu.berkeley.cs186.database.io.ReplacementPolicy;
 
 import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.List;
 import java.util.Iterator;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.HashSet;
 
 public class Database {
-  private Map<String, Table> tableLookup;
-  private Map<String, BPlusTree> indexLookup;
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+
+  private Catalog<Table> tableLookup;
+  private Catalog<BPlusTree> indexLookup;
   private long numTransactions;
   private String fileDir;
   private LockManager lockMan;
@@ -47,11 +56,54 @@ public class Database {
    * @throws DatabaseException
    */
   public Database(String fileDir, int numMemoryPages) throws DatabaseException {
+    this(fileDir, numMemoryPages, PageAllocator.getReplacementPolicy());
+  }
+
+  /**
+   * Creates a new database whose page cache uses the given replacement policy. The page cache is
+   * shared by every open database, so this changes the policy for all of them.
+   *
+   * @param fileDir the directory to put the table files in
+   * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+   * @param replacementPolicy the replacement policy for the page cache
+   * @throws DatabaseException
+   */
+  public Database(String fileDir, int numMemoryPages, ReplacementPolicy.Type replacementPolicy)
+      throws DatabaseException {
+    PageAllocator.setReplacementPolicy(replacementPolicy);
     this.numMemoryPages = numMemoryPages;
     this.fileDir = fileDir;
     numTransactions = 0;
-    tableLookup = new ConcurrentHashMap<String, Table>();
-    indexLookup = new ConcurrentHashMap<String, BPlusTree>();
+    tableLookup = new Catalog<Table>(DEFAULT_IDLE_TIMEOUT_MILLIS) {
+      protected Table open(String tableName) {
+        return new Table(tableName, Database.this.fileDir);
+      }
+
+      protected void close(String tableName, Table table, boolean remove) {
+        table.close();
+        if (!remove) {
+          table.writeMetadata();
+        }
+      }
+
+      protected boolean inUse(String tableName) {
+        return Database.this.lockMan.isLocked(tableName);
+      }
+    };
+    indexLookup = new Catalog<BPlusTree>(DEFAULT_IDLE_TIMEOUT_MILLIS) {
+      protected BPlusTree open(String indexName) {
+        return new BPlusTree(indexName, Database.this.fileDir);
+      }
+
+      protected void close(String indexName, BPlusTree index, boolean remove) {
+        index.close();
+      }
+
+      protected boolean inUse(String indexName) {
+        // index names are "table,column", and an index is used under a lock on its table
+        return Database.this.lockMan.isLocked(indexName.split(",")[0]);
+      }
+    };
 
     File dir = new File(fileDir);
     lockMan = new LockManager();
@@ -67,11 +119,11 @@ public class Database {
       if (fName.endsWith(Table.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(Table.FILENAME_EXTENSION);
         String tableName = fName.substring(0, lastIndex);
-        tableLookup.put(tableName, new Table(tableName, this.fileDir));
+        tableLookup.register(tableName);
       } else if (fName.endsWith(BPlusTree.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(BPlusTree.FILENAME_EXTENSION);
         String indexName = fName.substring(0, lastIndex);
-        indexLookup.put(indexName, new BPlusTree(indexName, this.fileDir));
+        indexLookup.register(indexName);
       }
     }
   }
@@ -85,13 +137,30 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTable(Schema s, String tableName) throws DatabaseException {
-    if (this.tableLookup.containsKey(tableName)) {
+    if (this.tableLookup.contains(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
 
     this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir));
   }
 
+  /**
+   * Create a new table in this database that stores its records in the given format.
+   *
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param format the record format of the table's data pages
+   * @throws DatabaseException
+   */
+  public synchronized void createTable(Schema s, String tableName, Table.RecordFormat format)
+      throws DatabaseException {
+    if (this.tableLookup.contains(tableName)) {
+      throw new DatabaseException("Table name already exists");
+    }
+
+    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir, format));
+  }
+
   /**
    * Create a new table in this database with an index on each of the given column names.
    * NOTE: YOU CAN NOT DELETE/UPDATE FROM THIS TABLE IF YOU CHOOSE TO BUILD INDICES!!
@@ -101,7 +170,7 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTableWithIndices(Schema s, String tableName, List<String> indexColumns) throws DatabaseException {
-    if (this.tableLookup.containsKey(tableName)) {
+    if (this.tableLookup.contains(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
 
@@ -131,6 +200,63 @@ public class Database {
     }
   }
 
+  /**
+   * Builds an index on a column of an existing table, with each node filled to
+   * BPlusTree.DEFAULT_FILL_FACTOR. See createIndex(String, String, float).
+   *
+   * @param tableName the name of the table
+   * @param columnName the name of the column to index
+   * @throws DatabaseException
+   */
+  public void createIndex(String tableName, String columnName) throws DatabaseException {
+    this.createIndex(tableName, columnName, BPlusTree.DEFAULT_FILL_FACTOR);
+  }
+
+  /**
+   * Builds an index on a column of an existing table. The (key, RecordID) pairs of the column
+   * are sorted with an external sort and bulk loaded into the index bottom-up, instead of being
+   * inserted one at a time, so the index is built in a linear number of IOs after the sort.
+   * NOTE: YOU CAN NOT DELETE/UPDATE FROM THIS TABLE IF YOU CHOOSE TO BUILD INDICES!!
+   *
+   * @param tableName the name of the table
+   * @param columnName the name of the column to index
+   * @param fillFactor the fraction of each index node to fill, greater than 0 and at most 1
+   * @throws DatabaseException
+   */
+  public synchronized void createIndex(String tableName, String columnName, float fillFactor)
+      throws DatabaseException {
+    if (!this.tableLookup.contains(tableName)) {
+      throw new DatabaseException("Table: " + tableName + " does not exist");
+    }
+    String indexName = tableName + "," + columnName;
+    if (this.indexLookup.contains(indexName)) {
+      throw new DatabaseException("Index already exists");
+    }
+
+    Transaction transaction = this.beginTransaction();
+    try {
+      Schema s = transaction.getSchema(tableName);
+      int column = s.getFieldNames().indexOf(columnName);
+      if (column == -1) {
+        throw new DatabaseException("Column desired for index does not exist");
+      }
+
+      BPlusTree index = new BPlusTree(s.getFieldTypes().get(column), indexName, this.fileDir);
+      try {
+        index.bulkLoad(transaction.sortIndexEntries(tableName, column), fillFactor);
+      } catch (BPlusTreeException e) {
+        index.close();
+        new File(this.fileDir + indexName + BPlusTree.FILENAME_EXTENSION).delete();
+        throw new DatabaseException(e);
+      }
+      // added while the transaction still holds its lock on the table, so that every record
+      // added afterwards goes into the index
+      this.indexLookup.put(indexName, index);
+    } finally {
+      transaction.end();
+    }
+  }
+
   /**
    * Delete a table in this database.
    *
@@ -138,15 +264,15 @@ public class Database {
    * @return true if the database was successfully deleted
    */
   public synchronized boolean deleteTable(String tableName) {
-    if (!this.tableLookup.containsKey(tableName)) {
+    if (!this.tableLookup.contains(tableName)) {
       return false;
     }
 
-    this.tableLookup.get(tableName).close();
     this.tableLookup.remove(tableName);
 
     File f = new File(fileDir + tableName + Table.FILENAME_EXTENSION);
     f.delete();
+    new File(fileDir + tableName + Table.METADATA_EXTENSION).delete();
 
     return true;
   }
@@ -155,7 +281,7 @@ public class Database {
    * Delete all tables from this database.
    */
   public synchronized void deleteAllTables() {
-    List<String> tableNames = new ArrayList<String>(tableLookup.keySet());
+    List<String> tableNames = tableLookup.getNames();
 
     for (String s : tableNames) {
       deleteTable(s);
@@ -163,14 +289,76 @@ public class Database {
   }
 
   /**
-   * Close this database.
+   * Makes every change written so far durable by writing back all dirty pages and forcing pending
+   * page allocations. The page cache is shared, so this also covers any other open database.
+   * The metadata of each table is saved afterwards, so that the tables open without a scan.
+   *
+   * The checkpoint never waits for writers. It runs as its own transaction and only saves the
+   * metadata of the open tables it can lock shared right away; those stay locked while their pages
+   * and metadata are saved. A table that another transaction holds locked is skipped: its pages
+   * are still written back, but if it was modified its metadata file stays deleted until the table
+   * is closed or a later checkpoint gets the lock, and until then reopening it scans its pages.
    */
-  public synchronized void close() {
-    for (Table t : this.tableLookup.values()) {
-      t.close();
+  public void checkpoint() {
+    Transaction t = this.beginTransaction();
+    List<String> locked = new ArrayList<String>();
+    try {
+      for (String tableName : this.tableLookup.getOpenNames()) {
+        if (this.lockMan.tryAcquireLock(tableName, t.transNum, LockManager.LockType.SHARED)) {
+          locked.add(tableName);
+        }
+      }
+
+      PageAllocator.checkpoint();
+      for (String tableName : locked) {
+        Table table = this.tableLookup.get(tableName);
+        if (table != null) {
+          table.writeMetadata();
+        }
+      }
+    } finally {
+      for (String tableName : locked) {
+        this.lockMan.releaseLock(tableName, t.transNum);
+      }
+      t.end();
     }
+  }
 
-    this.tableLookup.clear();
+  /**
+   * Sets how long a table or index may go without being used before it is closed to release its
+   * file and buffer frames. It is opened again the next time it is used. Tables are only closed
+   * while no transaction holds a lock on them.
+   *
+   * @param idleTimeoutMillis the idle timeout in milliseconds
+   */
+  public void setIdleTimeout(long idleTimeoutMillis) {
+    this.tableLookup.setIdleTimeout(idleTimeoutMillis);
+    this.indexLookup.setIdleTimeout(idleTimeoutMillis);
+  }
+
+  /**
+   * Closes the tables and indexes that have been idle for the idle timeout. This also happens as
+   * tables and indexes are looked up, at most once per timeout.
+   *
+   * @return the number of tables and indexes closed
+   */
+  public int closeIdle() {
+    return this.tableLookup.closeIdle() + this.indexLookup.closeIdle();
+  }
+
+  /**
+   * @return the number of tables and indexes whose files are open
+   */
+  public int getNumOpen() {
+    return this.tableLookup.getNumOpen() + this.indexLookup.getNumOpen();
+  }
+
+  /**
+   * Close this database.
+   */
+  public synchronized void close() {
+    this.tableLookup.closeAll();
+    this.indexLookup.closeAll();
   }
 
   /**
@@ -236,13 +424,13 @@ public class Database {
     public void queryAs(String tableName, String alias) throws DatabaseException {
       assert(this.active);
 
-      if (Database.this.tableLookup.containsKey(alias)
+      if (Database.this.tableLookup.contains(alias)
         || this.tempTables.containsKey(alias)
         || this.aliasMaps.containsKey(alias)) {
           throw new DatabaseException("Table name already exists");
       }
       checkAndGrabSharedLock(tableName);
-      if (Database.this.tableLookup.containsKey(tableName)) {
+      if (Database.this.tableLookup.contains(tableName)) {
         this.aliasMaps.put(alias, tableName);
       } else if (tempTables.containsKey(tableName)) {
         this.aliasMaps.put(alias, tableName);
@@ -261,7 +449,7 @@ public class Database {
     public void createTempTable(Schema schema, String tempTableName) throws DatabaseException {
       assert(this.active);
 
-      if (Database.this.tableLookup.containsKey(tempTableName)
+      if (Database.this.tableLookup.contains(tempTableName)
         || this.tempTables.containsKey(tempTableName))  {
         throw new DatabaseException("Table name already exists");
       }
@@ -283,11 +471,11 @@ public class Database {
      */
     public boolean indexExists(String tableName, String columnName) {
       try {
-        resolveIndexFromName(tableName, columnName);
+        // checked by name, so that planning a query does not open every index it considers
+        return Database.this.indexLookup.contains(resolveIndexName(tableName, columnName));
       } catch (DatabaseException e) {
         return false;
       }
-      return true;
     }
 
     public Iterator<Record> sortedScan(String tableName, String columnName) throws DatabaseException {
@@ -302,6 +490,24 @@ public class Database {
       return new RecordIterator(tab, index.sortedScanFrom(startValue));
     }
 
+    /**
+     * Scans the records of a table whose value in an indexed column is in [lo, hi), in order of
+     * that column. The index is read lazily, so the scan stops at hi without reading past it.
+     *
+     * @param tableName the name of the table
+     * @param columnName the name of the indexed column
+     * @param lo the smallest value to return, or null to start from the smallest value
+     * @param hi the value to stop before, or null to scan to the largest value
+     * @return an iterator of the records in the range
+     * @throws DatabaseException if the table or the index does not exist
+     */
+    public Iterator<Record> sortedScanRange(String tableName, String columnName, DataType lo, DataType hi)
+        throws DatabaseException {
+      Table tab = getTable(tableName);
+      BPlusTree index = resolveIndexFromName(tableName, columnName);
+      return new RecordIterator(tab, index.sortedScanRange(lo, hi));
+    }
+
     public Iterator<Record> lookupKey(String tableName, String columnName, DataType key) throws DatabaseException {
       Table tab = getTable(tableName);
       BPlusTree index = resolveIndexFromName(tableName, columnName);
@@ -379,6 +585,19 @@ public class Database {
       return getTable(tableName).pageIterator();
     }
 
+    public Page pinPage(String tableName, int pageNum) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).pinPage(pageNum);
+    }
+
+    public void unpinPage(String tableName, int pageNum) throws DatabaseException {
+      assert(this.active);
+
+      getTable(tableName).unpinPage(pageNum, false);
+    }
+
     public void updateRecord(String tableName, List<DataType> values, RecordID rid) throws DatabaseException {
       assert(this.active);
       checkAndGrabExclusiveLock(tableName);
@@ -428,6 +647,13 @@ public class Database {
       return getTable(tableName).readPageHeader(p);
     }
 
+    public Record readRecord(String tableName, Page p, int slot) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).readRecord(p, slot);
+    }
+
     public int getPageHeaderSize(String tableName) throws DatabaseException{
       assert(this.active);
 
@@ -456,6 +682,13 @@ public class Database {
       return this.resolveIndexFromName(tableName, columnName).getNumPages();
     }
 
+    public int getIndexHeight(String tableName, String columnName) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return this.resolveIndexFromName(tableName, columnName).getHeight();
+    }
+
     public Schema getSchema(String tableName) throws DatabaseException {
       assert(this.active);
 
@@ -479,7 +712,60 @@ public class Database {
       return new Schema(newColumnNames, schema.getFieldTypes());
     }
 
+    /**
+     * Sorts the (key, RecordID) pairs of a column of a table for building an index on it. The
+     * pairs are written to a temporary table of (key, page number, slot number) records, which
+     * is sorted on the key with a SortOperator. The table is scanned in RecordID order and the
+     * sort is stable, so pairs with equal keys stay in RecordID order.
+     */
+    private Iterator<LeafEntry> sortIndexEntries(String tableName, int column) throws DatabaseException {
+      Table tab = getTable(tableName);
+      String tempTableName = "Temp Index " + tableName + " " + tab.getSchema().getFieldNames().get(column);
+      List<DataType> tempTypes = Arrays.asList(tab.getSchema().getFieldTypes().get(column),
+          new IntDataType(), new IntDataType());
+      createTempTable(new Schema(Arrays.asList("key", "pageNum", "slotNum"), tempTypes), tempTableName);
+
+      Iterator<RecordID> rids = tab.recordIDIterator();
+      while (rids.hasNext()) {
+        RecordID rid = rids.next();
+        List<DataType> values = new ArrayList<DataType>();
+        values.add(tab.getRecord(rid).getValue(column));
+        values.add(new IntDataType(rid.getPageNum()));
+        values.add(new IntDataType(rid.getSlotNumber()));
+        addRecord(tempTableName, values);
+      }
+
+      final Iterator<Record> sorted;
+      try {
+        sorted = new SortOperator(new SequentialScanOperator(this, tempTableName), this, "key").iterator();
+      } catch (QueryPlanException e) {
+        throw new DatabaseException(e);
+      }
+      return new Iterator<LeafEntry>() {
+        public boolean hasNext() {
+          return sorted.hasNext();
+        }
+
+        public LeafEntry next() {
+          Record r = sorted.next();
+          return new LeafEntry(r.getValue(0), new RecordID(r.getValue(1).getInt(), r.getValue(2).getInt()));
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
     private BPlusTree resolveIndexFromName(String tableName, String columnName) throws DatabaseException {
+      BPlusTree index = Database.this.indexLookup.get(resolveIndexName(tableName, columnName));
+      if (index == null) {
+        throw new DatabaseException("Index does not exist");
+      }
+      return index;
+    }
+
+    private String resolveIndexName(String tableName, String columnName) throws DatabaseException {
       while (aliasMaps.containsKey(tableName)) {
         tableName = aliasMaps.get(tableName);
       }
@@ -493,11 +779,7 @@ public class Database {
         }
         columnName = columnName.split("\\.")[1];
       }
-      String indexName = tableName + "," + columnName;
-      if (Database.this.indexLookup.containsKey(indexName)) {
-        return Database.this.indexLookup.get(indexName);
-      }
-      throw new DatabaseException("Index does not exist");
+      return tableName + "," + columnName;
     }
 
     private Table getTable(String tableName) throws DatabaseException {
@@ -509,9 +791,10 @@ public class Database {
         tableName = aliasMaps.get(tableName);
       }
 
-      if (!Database.this.tableLookup.containsKey(tableName)) {
+      if (!Database.this.tableLookup.contains(tableName)) {
         throw new DatabaseException("Table: " + tableName + "does not exist");
       }
+      // locked before it is looked up, so that it is not closed for being idle while in use
       checkAndGrabSharedLock(tableName);
       return Database.this.tableLookup.get(tableName);
     }
@@ -525,16 +808,15 @@ public class Database {
         tableName = aliasMaps.get(tableName);
       }
 
-      if (!this.tempTables.containsKey(tableName) && !Database.this.tableLookup.containsKey(tableName)) {
+      if (!this.tempTables.containsKey(tableName) && !Database.this.tableLookup.contains(tableName)) {
         throw new DatabaseException("Table: " + tableName + " Does not exist");
       }
 
       LockManager lockMan = Database.this.lockMan;
-      if (lockMan.holdsLock(tableName, this.transNum, LockManager.LockType.SHARED)) {
-        this.locksHeld.put(tableName, LockManager.LockType.SHARED);
-      } else {
+      if (!lockMan.holdsLock(tableName, this.transNum, LockManager.LockType.SHARED)) {
         lockMan.acquireLock(tableName, this.transNum, LockManager.LockType.SHARED);
       }
+      this.locksHeld.put(tableName, LockManager.LockType.SHARED);
     }
 
     private void checkAndGrabExclusiveLock(String tableName) throws DatabaseException {
@@ -546,17 +828,16 @@ public class Database {
         return;
       }
 
-      if (!this.tempTables.containsKey(tableName) && !Database.this.tableLookup.containsKey(tableName)) {
+      if (!this.tempTables.containsKey(tableName) && !Database.this.tableLookup.contains(tableName)) {
         throw new DatabaseException("Table: " + tableName + " Does not exist");
       }
 
       LockManager lockMan = Database.this.lockMan;
 
-      if (lockMan.holdsLock(tableName, this.transNum, LockManager.LockType.EXCLUSIVE)) {
-        this.locksHeld.put(tableName, LockManager.LockType.EXCLUSIVE);
-      } else {
+      if (!lockMan.holdsLock(tableName, this.transNum, LockManager.LockType.EXCLUSIVE)) {
         lockMan.acquireLock(tableName, this.transNum, LockManager.LockType.EXCLUSIVE);
       }
+      this.locksHeld.put(tableName, LockManager.LockType.EXCLUSIVE);
     }
 
     private void releaseAllLocks() {
@@ -574,7 +855,7 @@ public class Database {
         return;
       }
 
-      this.tempTables.get(tempTableName).close();
+      this.tempTables.remove(tempTableName).close();
       Database.this.tableLookup.remove(tempTableName);
 
       File f = new File(Database.this.fileDir + "temp/" + tempTableName + Table.FILENAME_EXTENSION);
@@ -582,7 +863,7 @@ public class Database {
     }
 
     private void deleteAllTempTables() {
-      Set<String> keys = tempTables.keySet();
+      Set<String> keys = new HashSet<String>(tempTables.keySet());
 
       for (String tableName : keys) {
         deleteTempTable(tableName);
@@ -154,6 +154,31 @@ public class Lock {
     return;
   }
 
+  /**
+   * Grants the lock to transNum if that can be done without waiting and without jumping ahead of
+   * a queued request. Unlike acquire, the request is never queued.
+   * @param transNum transNum of the lock request
+   * @param lockType lockType of the lock request
+   * @return true if transNum now holds the lock
+   */
+  protected synchronized boolean tryAcquire(long transNum, LockManager.LockType lockType) {
+    if (this.containsTransaction(transNum)) {
+      if (lockType == LockManager.LockType.SHARED || this.getType() == LockManager.LockType.EXCLUSIVE) {
+        return true;
+      }
+    }
+    if (!this.transactionQueue.isEmpty()) {
+      return false;
+    }
+    if (!this.isEmpty() && (lockType == LockManager.LockType.EXCLUSIVE
+        || this.getType() == LockManager.LockType.EXCLUSIVE)) {
+      return false;
+    }
+    this.addOwner(transNum);
+    this.setType(lockType);
+    return true;
+  }
+
   /**
    * transNum releases ownership of this lock
    * @param transNum transNum of transaction that is releasing ownership of this lock
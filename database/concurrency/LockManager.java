@@ -39,6 +39,22 @@ public class LockManager {
 
   }
 
+  /**
+   * Acquires a lock on tableName of type lockType for transaction transNum only if it is free to
+   * be granted right away. The transaction never waits, so it cannot take part in a deadlock.
+   *
+   * @param tableName the database to lock on
+   * @param transNum the transactions id
+   * @param lockType the type of lock
+   * @return true if the lock was acquired
+   */
+  public boolean tryAcquireLock(String tableName, long transNum, LockType lockType) {
+    this.tableNameToLock.putIfAbsent(tableName, new Lock(lockType));
+    Lock lock = this.tableNameToLock.get(tableName);
+
+    return lock.tryAcquire(transNum, lockType);
+  }
+
   /**
    * Adds any nodes/edges caused the by the specified LockRequest to
    * this LockManager's WaitsForGraph
@@ -78,6 +94,17 @@ public class LockManager {
     }
   }
 
+  /**
+   * Returns a boolean indicating whether or not any transaction holds a lock on tableName.
+   *
+   * @param tableName the table that we're checking
+   * @return whether the table is locked
+   */
+  public boolean isLocked(String tableName) {
+    Lock lock = this.tableNameToLock.get(tableName);
+    return lock != null && !lock.getOwners().isEmpty();
+  }
+
   /**
    * Returns a boolean indicating whether or not transNum holds a lock of type lt on tableName.
    *
@@ -1,10 +1,14 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.datatypes.BoolDataType;
 import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.datatypes.FloatDataType;
+import edu.berkeley.cs186.database.datatypes.IntDataType;
+import edu.berkeley.cs186.database.datatypes.StringDataType;
 import edu.berkeley.cs186.database.table.RecordID;
+import edu.berkeley.cs186.database.table.SlotBitmap;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -13,6 +17,10 @@ import java.util.ArrayList;
  * bitmap, and entries. The type of page header and entry are determined by
  * the subclasses InnerNode and LeafNode.
  *
+ * The entries of a node are kept in sorted order in its first slots, so a
+ * node is searched by binary search over the keys on its page, decoding only
+ * the keys it compares against.
+ *
  * Properties:
  * `keySchema`: the DataType for this index's search key
  * `entrySize`: the physical size (in bytes) of a page entry of this node
@@ -142,15 +150,19 @@ public abstract class BPlusNode {
    * @param ent the entry to write
    */
   private void writeEntry(int slot, BEntry ent) {
+    setValid(slot);
+    int entryOffset = getOffset(slot);
+    getPage().writeBytes(entryOffset, entrySize, ent.toBytes());
+  }
+
+  private void setValid(int slot) {
     int byteOffset = slot/8;
     int bitOffset = 7 - (slot % 8);
     byte mask = (byte) (1 << bitOffset);
-    
+
     byte[] bitMap = getBitMap();
     bitMap[byteOffset] = (byte) (bitMap[byteOffset] | mask);
-    setBitMap(bitMap); 
-    int entryOffset = getOffset(slot);
-    getPage().writeBytes(entryOffset, entrySize, ent.toBytes());
+    setBitMap(bitMap);
   }
 
   /**
@@ -173,18 +185,9 @@ public abstract class BPlusNode {
    * @return the first free slot, otherwise -1 if none exists
    */
   private int findFreeSlot() {
-    byte[] bitMap = this.getBitMap();
-
-    for (int i = 0; i < this.numEntries; i++) {
-      int byteOffset = i/8;
-      int bitOffset = 7 - (i % 8);
-      byte mask = (byte) (1 << bitOffset);
-      byte value = (byte) (bitMap[byteOffset] & mask);
-      if (value == 0) {
-        return i;
-      }
-    }
-    return -1;
+    // the bitmap may have a few more bits than the node has entries
+    int slot = new SlotBitmap(this.getBitMap()).nextClearSlot(0);
+    return slot < this.numEntries ? slot : -1;
   }
 
   /**
@@ -193,22 +196,120 @@ public abstract class BPlusNode {
    * @return a list of entries that have the valid bit set
    */
   protected List<BEntry> getAllValidEntries() {
-    byte[] bitMap = this.getBitMap();
+    SlotBitmap bitMap = new SlotBitmap(this.getBitMap());
     List<BEntry> entries = new ArrayList<BEntry>(); 
-    for (int i = 0; i < this.numEntries; i++) {
-      int byteOffset = i/8;
-      int bitOffset = 7 - (i % 8);
-      byte mask = (byte) (1 << bitOffset);
-      
-      byte value = (byte) (bitMap[byteOffset] & mask);
-      
-      if (value != 0) {
-        entries.add(readEntry(i));
-      }
+    for (int i = bitMap.nextSetSlot(0); i != -1 && i < this.numEntries; i = bitMap.nextSetSlot(i + 1)) {
+      entries.add(readEntry(i));
     }
     return entries;
   }
 
+  /**
+   * Returns the number of entries of this node. The entries fill the first
+   * slots, so this is the number of leading set bits of the bitmap.
+   *
+   * @return the number of valid entries
+   */
+  protected int getNumValidEntries() {
+    Page page = getPage();
+    int count = 0;
+    for (int i = 0; i < bitMapSize; i++) {
+      int bits = page.readByte(headerSize + i) & 0xFF;
+      if (bits != 0xFF) {
+        return count + Integer.numberOfLeadingZeros(~bits & 0xFF) - 24;
+      }
+      count += 8;
+    }
+    return count;
+  }
+
+  /**
+   * Decodes the key of the entry in the given slot.
+   *
+   * @param page the page of this node
+   * @param slot the slot to read from
+   * @return the key of the entry
+   */
+  protected DataType readKey(Page page, int slot) {
+    byte[] keyBytes = page.readBytes(getOffset(slot), keySchema.getSize());
+    switch (keySchema.type()) {
+    case INT:
+      return new IntDataType(keyBytes);
+    case FLOAT:
+      return new FloatDataType(keyBytes);
+    case BOOL:
+      return new BoolDataType(keyBytes);
+    default:
+      return new StringDataType(keyBytes);
+    }
+  }
+
+  /**
+   * Compares key with the key of the entry in the given slot. Fixed size keys
+   * are compared on the page without decoding them.
+   *
+   * @param page the page of this node
+   * @param key the key to compare
+   * @param slot the slot of the entry to compare against
+   * @return a negative number, zero or a positive number as key is less than,
+   * equal to or greater than the key in slot
+   */
+  protected int compareKey(Page page, DataType key, int slot) {
+    int offset = getOffset(slot);
+    switch (keySchema.type()) {
+    case INT:
+      return Integer.compare(key.getInt(), page.readInt(offset));
+    case FLOAT:
+      return Float.compare(key.getFloat(), Float.intBitsToFloat(page.readInt(offset)));
+    case BOOL:
+      return Boolean.compare(key.getBool(), page.readByte(offset) != 0);
+    default:
+      return key.compareTo(readKey(page, slot));
+    }
+  }
+
+  /**
+   * Compares ent with the entry in the given slot in the order of
+   * BEntry#compareTo, that is by key and then by page number or RecordID.
+   */
+  private int compareEntry(Page page, BEntry ent, int slot) {
+    int keyCompVal = compareKey(page, ent.getKey(), slot);
+    if (keyCompVal != 0) {
+      return keyCompVal;
+    }
+    int offset = getOffset(slot) + keySchema.getSize();
+    if (isLeaf()) {
+      RecordID rid = new RecordID(page.readBytes(offset, RecordID.getSize()));
+      return ent.getRecordID().compareTo(rid);
+    }
+    return Integer.compare(ent.getPageNum(), page.readInt(offset));
+  }
+
+  /**
+   * Binary searches the first numValid slots for the first entry whose key is
+   * at least key, or greater than key if inclusive is false.
+   *
+   * @param page the page of this node
+   * @param key the key to search for
+   * @param numValid the number of valid entries
+   * @param inclusive whether an entry equal to key ends the search
+   * @return the slot found, or numValid if every key is smaller
+   */
+  protected int findSlot(Page page, DataType key, int numValid, boolean inclusive) {
+    int lo = 0;
+    int hi = numValid;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      int compVal = compareKey(page, key, mid);
+      if (compVal > 0 || (compVal == 0 && !inclusive)) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
   /**
    * Clears all the entries of this node, and writes all the given entries into
    * the node, starting from the first slot.
@@ -238,14 +339,30 @@ public abstract class BPlusNode {
     if (!hasSpace()) {
       throw new BPlusTreeException("Node should have split before; Currently is full");
     }
-    List<BEntry> entries = getAllValidEntries();
-    entries.add(ent);
-    Collections.sort(entries);
-    overwriteBNodeEntries(entries);
+    Page page = getPage();
+    int numValid = getNumValidEntries();
+    int lo = 0;
+    int hi = numValid;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (compareEntry(page, ent, mid) >= 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+
+    // shift the larger entries up one slot to keep the node sorted
+    if (lo < numValid) {
+      int num = (numValid - lo) * entrySize;
+      page.writeBytes(getOffset(lo + 1), num, page.readBytes(getOffset(lo), num));
+    }
+    page.writeBytes(getOffset(lo), entrySize, ent.toBytes());
+    setValid(numValid);
     if (!hasSpace()) {
       splitNode();
     }
-   }
+  }
 
   /**
    * Recursively locate the child that leads to the leaf node. If a key spans
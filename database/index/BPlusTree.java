@@ -6,8 +6,10 @@ import edu.berkeley.cs186.database.datatypes.DataType;
 import edu.berkeley.cs186.database.table.RecordID;
 import edu.berkeley.cs186.database.datatypes.*;
 
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 import java.util.Iterator;
+import java.util.List;
 import java.nio.file.Paths;
 
 /**
@@ -26,6 +28,7 @@ import java.nio.file.Paths;
 public class BPlusTree {
   public static final String FILENAME_PREFIX = "db";
   public static final String FILENAME_EXTENSION = ".index";
+  public static final float DEFAULT_FILL_FACTOR = 0.9f;
 
   protected PageAllocator allocator;
   protected DataType keySchema;
@@ -79,7 +82,7 @@ public class BPlusTree {
 
   public Iterator<RecordID> sortedScan() {
     LeafNode firstLeaf = new LeafNode(this, firstLeafPageNum);
-    return new BPlusIterator(firstLeaf);
+    return new BPlusIterator(firstLeaf, null, null, false);
   }
 
   /**
@@ -93,7 +96,26 @@ public class BPlusTree {
     BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
     LeafNode leaf = root.locateLeaf(keyStart, true);
 
-    return new BPlusIterator(leaf, keyStart, true);
+    return new BPlusIterator(leaf, keyStart, null, false);
+  }
+
+  /**
+   * Performs a sorted scan of the keys from lo up to but not including hi. The scan
+   * stops at the first key that is at least hi, without reading the leaves after it.
+   *
+   * @param lo the smallest key to return, or null to start from the first key
+   * @param hi the key to stop before, or null to scan to the last key
+   * @return Iterator of RecordIDs with keys in [lo, hi) in sorted order.
+   */
+
+  public Iterator<RecordID> sortedScanRange(DataType lo, DataType hi) {
+    LeafNode leaf;
+    if (lo == null) {
+      leaf = new LeafNode(this, firstLeafPageNum);
+    } else {
+      leaf = BPlusNode.getBPlusNode(this, rootPageNum).locateLeaf(lo, true);
+    }
+    return new BPlusIterator(leaf, lo, hi, false);
   }
 
   /**
@@ -106,7 +128,7 @@ public class BPlusTree {
   public Iterator<RecordID> lookupKey(DataType key) {
     BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
     LeafNode leaf = root.locateLeaf(key, true);
-    return new BPlusIterator(leaf, key, false);
+    return new BPlusIterator(leaf, key, key, true);
   }
 
   /**
@@ -120,6 +142,94 @@ public class BPlusTree {
     BPlusNode.getBPlusNode(this, rootPageNum).insertKey(key, rid);
   }
 
+  /**
+   * Builds this empty index bottom-up from entries sorted by key, instead of
+   * inserting them one at a time. The leaves are filled in order to
+   * fillFactor of their capacity and linked together; then each level of
+   * inner nodes is built over the first keys of the nodes below it, until a
+   * single node is left to be the root. Every node is written once, so this
+   * takes time linear in the number of entries.
+   *
+   * @param entries the entries to load, sorted by key
+   * @param fillFactor the fraction of each node to fill, greater than 0 and at most 1
+   * @throws BPlusTreeException if this index is not empty or entries is not sorted
+   */
+  public void bulkLoad(Iterator<LeafEntry> entries, float fillFactor) {
+    if (fillFactor <= 0 || fillFactor > 1) {
+      throw new BPlusTreeException("Fill factor must be greater than 0 and at most 1");
+    }
+    BPlusNode root = BPlusNode.getBPlusNode(this, this.rootPageNum);
+    if (!root.isLeaf() || root.getNumValidEntries() > 0) {
+      throw new BPlusTreeException("Can only bulk load an empty index");
+    }
+
+    // the first key of every leaf after the first, for the level above
+    List<BEntry> separators = new ArrayList<BEntry>();
+    List<BEntry> block = new ArrayList<BEntry>();
+    LeafNode leaf = (LeafNode) root;
+    int capacity = getNodeCapacity(leaf, fillFactor);
+    DataType prevKey = null;
+    while (entries.hasNext()) {
+      LeafEntry ent = entries.next();
+      if (prevKey != null && ent.getKey().compareTo(prevKey) < 0) {
+        throw new BPlusTreeException("Entries to bulk load are not sorted");
+      }
+      prevKey = ent.getKey();
+
+      if (block.size() == capacity) {
+        leaf.overwriteBNodeEntries(block);
+        LeafNode next = new LeafNode(this);
+        next.setPrevLeaf(leaf.getPageNum());
+        leaf.setNextLeaf(next.getPageNum());
+        separators.add(new InnerEntry(ent.getKey(), next.getPageNum()));
+        leaf = next;
+        block.clear();
+      }
+      block.add(ent);
+    }
+    leaf.overwriteBNodeEntries(block);
+
+    int firstChild = this.firstLeafPageNum;
+    while (!separators.isEmpty()) {
+      List<BEntry> pushedUp = new ArrayList<BEntry>();
+      InnerNode node = new InnerNode(this);
+      int levelFirst = node.getPageNum();
+      capacity = getNodeCapacity(node, fillFactor);
+      node.setFirstChild(firstChild);
+      BPlusNode.getBPlusNode(this, firstChild).setParent(node.getPageNum());
+      block.clear();
+
+      for (BEntry ent : separators) {
+        if (block.size() == capacity) {
+          // the separator of a full node's right neighbour moves up a level
+          node.overwriteBNodeEntries(block);
+          node = new InnerNode(this);
+          node.setFirstChild(ent.getPageNum());
+          pushedUp.add(new InnerEntry(ent.getKey(), node.getPageNum()));
+          block.clear();
+        } else {
+          block.add(ent);
+        }
+        BPlusNode.getBPlusNode(this, ent.getPageNum()).setParent(node.getPageNum());
+      }
+      node.overwriteBNodeEntries(block);
+
+      separators = pushedUp;
+      firstChild = levelFirst;
+    }
+    updateRoot(firstChild);
+  }
+
+  /**
+   * Nodes split as soon as they are full, so a loaded node holds at most one
+   * entry less than it has slots.
+   *
+   * @return the number of entries to load into node
+   */
+  private static int getNodeCapacity(BPlusNode node, float fillFactor) {
+    return Math.max(1, Math.min(node.numEntries - 1, (int) (node.numEntries * fillFactor)));
+  }
+
   /**
    * Deletes an entry with the matching Key and RecordID
    *
@@ -147,6 +257,28 @@ public class BPlusTree {
     return this.allocator.getNumPages();
   }
 
+  /**
+   * Closes the file of this index. The index must not be used afterwards.
+   */
+  public void close() {
+    this.allocator.close();
+  }
+
+  /**
+   * Walks from the root down the leftmost children to count the levels of this tree.
+   *
+   * @return the number of nodes on a path from the root to a leaf
+   */
+  public int getHeight() {
+    int height = 1;
+    BPlusNode node = BPlusNode.getBPlusNode(this, this.rootPageNum);
+    while (!node.isLeaf()) {
+      node = BPlusNode.getBPlusNode(this, ((InnerNode) node).getFirstChild());
+      height++;
+    }
+    return height;
+  }
+
   /**
    * Updates where the root page is. Should be called whenever the root node has been split
    *
@@ -214,70 +346,64 @@ public class BPlusTree {
 
   /**
    * An implementation of Iterator that provides an iterator interface over RecordIDs
-   * in this index.
+   * in this index. It is a cursor over the leaves: entries are read from the page of
+   * the current leaf one at a time, and the next leaf is only fetched once the current
+   * one is used up, so a scan takes constant memory and stops at its upper bound
+   * without reading the leaves after it. The index must not be modified while the
+   * iterator is in use.
    */
 
   private class BPlusIterator implements Iterator<RecordID> {
     private LeafNode currLeaf;
-    private Iterator<RecordID> currLeafIter;
-    private DataType lookupKey = null;
-    private boolean isScan;
+    private int currSlot;
+    private int numValid;
+    private DataType upperBound;
+    private boolean inclusive;
 
   /**
-   * This constructor creates an Iterator that scans starting from some LeafNode.
+   * This constructor creates an Iterator that scans from the first key of some LeafNode
+   * that is at least lowerBound up to upperBound.
    *
    * @param leaf the LeafNode to start scanning from.
+   * @param lowerBound the smallest key to return, or null to start from the first key of leaf
+   * @param upperBound the key to stop at, or null to scan to the last leaf
+   * @param inclusive whether keys equal to upperBound are returned
    */
 
-    public BPlusIterator(LeafNode leaf) {
+    public BPlusIterator(LeafNode leaf, DataType lowerBound, DataType upperBound, boolean inclusive) {
       this.currLeaf = leaf;
+      this.upperBound = upperBound;
+      this.inclusive = inclusive;
       if (leaf != null) {
-        this.currLeafIter = leaf.scan();
+        this.numValid = leaf.getNumValidEntries();
+        this.currSlot = lowerBound == null ? 0 : leaf.findSlot(leaf.getPage(), lowerBound, this.numValid, true);
       }
-      this.isScan = true;
     }
 
-  /**
-   * This constructor creates an Iterator that scans starting from some LeafNode and some starting value.
-   * Can be used for LookupKey or sortedScanFrom via a boolean toggle.
-   *
-   * @param leaf the LeafNode to start scanning from.
-   * @param key the key to that has to match
-   * @param scan boolean to toggle lookupKey that matches an exact key vs a sortedScanFrom that starts from some value
-   */
-
-    public BPlusIterator(LeafNode leaf, DataType key, boolean scan) {
-      this.currLeaf = leaf;
-      this.lookupKey = key;
-      this.isScan = scan;
-      if (leaf != null) {
-        if (scan) {
-          this.currLeafIter = leaf.scanFrom(key);
-        } else {
-          this.currLeafIter = leaf.scanForKey(key);
+    public boolean hasNext() {
+      while (this.currLeaf != null) {
+        if (this.currSlot < this.numValid) {
+          if (this.upperBound == null) {
+            return true;
+          }
+          int compVal = this.currLeaf.compareKey(this.currLeaf.getPage(), this.upperBound, this.currSlot);
+          if (compVal > 0 || (compVal == 0 && this.inclusive)) {
+            return true;
+          }
+          this.currLeaf = null;
+          return false;
         }
-      }
-    }
 
-    public boolean hasNext() {
-      if (this.currLeaf == null) {
-        return false;
-      }
-      if (this.currLeafIter.hasNext()) {
-        return true;
-      }
-      if (this.currLeaf.getNextLeaf() == -1) {
-        return false;
-      }
-      this.currLeaf = (LeafNode) BPlusNode.getBPlusNode(BPlusTree.this, this.currLeaf.getNextLeaf());
-      if (this.isScan) {
-        this.currLeafIter = this.currLeaf.scan();
-        return this.currLeafIter.hasNext();
-      }
-      else {
-        this.currLeafIter = this.currLeaf.scanForKey(this.lookupKey);
-        return this.currLeafIter.hasNext();
+        int nextLeaf = this.currLeaf.getNextLeaf();
+        if (nextLeaf == -1) {
+          this.currLeaf = null;
+          return false;
+        }
+        this.currLeaf = (LeafNode) BPlusNode.getBPlusNode(BPlusTree.this, nextLeaf);
+        this.currSlot = 0;
+        this.numValid = this.currLeaf.getNumValidEntries();
       }
+      return false;
     }
 
     /**
@@ -287,10 +413,10 @@ public class BPlusTree {
      * @throws NoSuchElementException if there are no more Records to yield
      */
     public RecordID next() {
-      if (this.currLeaf == null || !this.currLeafIter.hasNext()) {
+      if (!this.hasNext()) {
         throw new NoSuchElementException("no elements left");
       }
-      return this.currLeafIter.next();
+      return this.currLeaf.getRecordID(this.currLeaf.getPage(), this.currSlot++);
     }
 
     public void remove() {
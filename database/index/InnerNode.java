@@ -51,18 +51,19 @@ public class InnerNode extends BPlusNode {
     if (key == null) {
       return null;
     }
-    List<BEntry> all_entries = this.getAllValidEntries();
-    int i = 0;
-    int prev = getFirstChild();
-    while (i < all_entries.size()) {
-      BEntry curr = all_entries.get(i);
-      if (key.compareTo(curr.getKey()) < 0) {
-        return getBPlusNode(getTree(), prev).locateLeaf(key, findFirst);
-      }
-      i++;
-      prev = curr.getPageNum();
-    }
-    return getBPlusNode(getTree(), all_entries.get(i - 1).getPageNum()).locateLeaf(key, findFirst);
+    // descend into the child of the last entry whose key is at most key
+    Page page = getPage();
+    int slot = findSlot(page, key, getNumValidEntries(), false);
+    int child = slot == 0 ? getFirstChild() : readChild(page, slot - 1);
+    return getBPlusNode(getTree(), child).locateLeaf(key, findFirst);
+  }
+
+  /**
+   * Reads the page number of the entry in the given slot without decoding its
+   * key.
+   */
+  private int readChild(Page page, int slot) {
+    return page.readInt(getOffset(slot) + getTree().keySchema.getSize());
   }
 
   /**
@@ -50,8 +50,7 @@ public class LeafNode extends BPlusNode {
     if (findFirst) {
       if (getPrevLeaf() >= 0) {
         LeafNode prev = (LeafNode) getBPlusNode(getTree(), getPrevLeaf());
-        List<BEntry> prev_vals = prev.getAllValidEntries();
-        if (key.compareTo(prev_vals.get(prev_vals.size() - 1).getKey()) > 0 ) {
+        if (prev.compareKey(prev.getPage(), key, prev.getNumValidEntries() - 1) > 0) {
           return this;
         }
         return prev.locateLeaf(key, findFirst);
@@ -60,8 +59,7 @@ public class LeafNode extends BPlusNode {
     else {
       if (getNextLeaf() >= 0) {
         LeafNode next = (LeafNode) getBPlusNode(getTree(), getNextLeaf());
-        List<BEntry> next_vals = next.getAllValidEntries();
-        if (key.compareTo(next_vals.get(0).getKey()) < 0) {
+        if (next.compareKey(next.getPage(), key, 0) < 0) {
           return this;
         }
         return next.locateLeaf(key, findFirst);
@@ -130,14 +128,7 @@ public class LeafNode extends BPlusNode {
    * @return an iterator of RecordID's
    */
   public Iterator<RecordID> scan() {
-    List<BEntry> validEntries = getAllValidEntries();
-    List<RecordID> rids = new ArrayList<RecordID>();
-
-    for (BEntry le : validEntries) {
-      rids.add(le.getRecordID());
-    }
-
-    return rids.iterator();
+    return readRecordIDs(getPage(), 0, getNumValidEntries());
   }
 
   /**
@@ -148,15 +139,9 @@ public class LeafNode extends BPlusNode {
    * @return an iterator of RecordID's
    */
   public Iterator<RecordID> scanFrom(DataType startValue) {
-    List<BEntry> validEntries = getAllValidEntries();
-    List<RecordID> rids = new ArrayList<RecordID>();
-
-    for (BEntry le : validEntries) {
-      if (startValue.compareTo(le.getKey()) < 1) { 
-        rids.add(le.getRecordID());
-      }
-    }
-    return rids.iterator();
+    Page page = getPage();
+    int numValid = getNumValidEntries();
+    return readRecordIDs(page, findSlot(page, startValue, numValid, true), numValid);
   }
 
   /**
@@ -166,14 +151,32 @@ public class LeafNode extends BPlusNode {
    * @return an iterator of RecordID's
    */
   public Iterator<RecordID> scanForKey(DataType key) {
-    List<BEntry> validEntries = getAllValidEntries();
-    List<RecordID> rids = new ArrayList<RecordID>();
+    Page page = getPage();
+    int numValid = getNumValidEntries();
+    int start = findSlot(page, key, numValid, true);
+    return readRecordIDs(page, start, findSlot(page, key, numValid, false));
+  }
 
-    for (BEntry le : validEntries) {
-      if (key.compareTo(le.getKey()) == 0) { 
-        rids.add(le.getRecordID());
-      }
+  /**
+   * Reads the RecordID's of the entries in slots start to end, exclusive,
+   * without decoding their keys.
+   */
+  private Iterator<RecordID> readRecordIDs(Page page, int start, int end) {
+    List<RecordID> rids = new ArrayList<RecordID>(Math.max(0, end - start));
+    for (int slot = start; slot < end; slot++) {
+      rids.add(getRecordID(page, slot));
     }
     return rids.iterator();
   }
+
+  /**
+   * Reads the RecordID of the entry in the given slot without decoding its key.
+   *
+   * @param page the page of this node
+   * @param slot the slot to read from
+   * @return the RecordID of the entry
+   */
+  public RecordID getRecordID(Page page, int slot) {
+    return new RecordID(page.readBytes(getOffset(slot) + getTree().keySchema.getSize(), RecordID.getSize()));
+  }
 }
@@ -0,0 +1,64 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes back the dirty pages in the page cache on a daemon thread, in page number
+ * order, so that a page chosen for eviction is usually already clean and the caller that evicts it
+ * does not have to wait for it to be forced. Each run also forces the pending allocator metadata
+ * changes whose group commit interval has passed (see PageAllocator.setGroupCommit).
+ */
+public class BackgroundWriter {
+  private ScheduledExecutorService executor;
+  private ScheduledFuture<?> task;
+  private long intervalMillis;
+
+  public BackgroundWriter() {
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "page-background-writer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    this.task = null;
+    this.intervalMillis = 0;
+  }
+
+  /**
+   * Runs the writer every intervalMillis milliseconds, replacing any earlier schedule. An interval
+   * of 0 stops the writer.
+   *
+   * @param intervalMillis the time between runs
+   */
+  public synchronized void setInterval(long intervalMillis) {
+    if (intervalMillis < 0) {
+      throw new IllegalArgumentException("interval can't be negative");
+    }
+    if (this.task != null) {
+      this.task.cancel(false);
+      this.task = null;
+    }
+    this.intervalMillis = intervalMillis;
+    if (intervalMillis > 0) {
+      this.task = this.executor.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          try {
+            PageAllocator.flushDirtyPages();
+            PageAllocator.syncStaleAllocators();
+          } catch (PageException e) {
+            // a page whose file went away under us; the next run or its eviction will handle it
+          }
+        }
+      }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public synchronized long getInterval() {
+    return this.intervalMillis;
+  }
+}
@@ -0,0 +1,349 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A buffer pool of Pages keyed by virtual page number. The frames are partitioned by virtual page
+ * number into independently locked shards, each with its own ReplacementPolicy, so that lookups of
+ * different pages do not contend on a single monitor. Every shard keeps its own hit, miss and
+ * eviction counters.
+ *
+ * A frame can be pinned to keep it from being evicted. Evicted frames are only written back if
+ * their page is dirty. If a page has to be cached while every frame of its shard is pinned, it is
+ * held in a borrowed frame outside the shard's ReplacementPolicy instead of failing the caller; a
+ * borrowed frame is dropped as soon as it is no longer pinned.
+ */
+public class BufferPool {
+  private Shard[] shards;
+  private int shardMask;
+  private int framesPerShard;
+  private volatile ReplacementPolicy.Type policyType;
+
+  public BufferPool(int numFrames, int numShards) {
+    this(numFrames, numShards, ReplacementPolicy.Type.CLOCK);
+  }
+
+  /**
+   * Creates a new BufferPool holding up to numFrames pages split across numShards shards.
+   *
+   * @param numFrames the total number of pages this pool can hold
+   * @param numShards the number of shards, must be a power of two
+   * @param policyType the replacement policy each shard runs
+   */
+  public BufferPool(int numFrames, int numShards, ReplacementPolicy.Type policyType) {
+    if (numShards <= 0 || Integer.bitCount(numShards) != 1) {
+      throw new IllegalArgumentException("number of shards must be a power of two");
+    }
+    this.shards = new Shard[numShards];
+    this.shardMask = numShards - 1;
+    this.policyType = policyType;
+    this.framesPerShard = Math.max(1, numFrames / numShards);
+    for (int i = 0; i < numShards; i++) {
+      this.shards[i] = new Shard(newPolicy(policyType, this.framesPerShard));
+    }
+  }
+
+  private static ReplacementPolicy newPolicy(ReplacementPolicy.Type type, int numFrames) {
+    switch (type) {
+      case TWO_QUEUE:
+        return new TwoQueueReplacer(numFrames);
+      case CLOCK:
+      default:
+        return new ClockReplacer(numFrames);
+    }
+  }
+
+  /**
+   * Looks up the page cached under vPageNum.
+   *
+   * @param vPageNum the virtual page number
+   * @param pin whether to pin the frame if the page is found
+   * @return the cached Page, or null if it is not in the pool
+   */
+  public Page get(long vPageNum, boolean pin) {
+    Shard shard = shardFor(vPageNum);
+    synchronized(shard) {
+      Frame frame = shard.frames.get(vPageNum);
+      if (frame == null) {
+        shard.misses++;
+        return null;
+      }
+      shard.hits++;
+      shard.replacer.access(vPageNum);
+      if (pin) {
+        frame.pinCount++;
+      }
+      return frame.page;
+    }
+  }
+
+  /**
+   * Checks whether a page is cached under vPageNum without counting a hit or miss or recording an
+   * access.
+   *
+   * @param vPageNum the virtual page number
+   * @return whether the page is cached
+   */
+  public boolean contains(long vPageNum) {
+    Shard shard = shardFor(vPageNum);
+    synchronized(shard) {
+      return shard.frames.containsKey(vPageNum);
+    }
+  }
+
+  /**
+   * Caches page under vPageNum unless another page got there first, evicting an unpinned frame
+   * if the shard is full. If every frame in the shard is pinned the page goes into a borrowed
+   * frame.
+   *
+   * @param vPageNum the virtual page number
+   * @param page the page to cache
+   * @param pin whether to pin the frame
+   * @return the page now cached under vPageNum
+   */
+  public Page putIfAbsent(long vPageNum, Page page, boolean pin) {
+    Shard shard = shardFor(vPageNum);
+    synchronized(shard) {
+      Frame frame = shard.frames.get(vPageNum);
+      if (frame == null) {
+        frame = new Frame(page);
+        if (!shard.replacer.isFull() || shard.evict()) {
+          shard.replacer.insert(vPageNum);
+        } else {
+          shard.dropBorrowed();
+          frame.borrowed = true;
+        }
+        shard.frames.put(vPageNum, frame);
+      } else {
+        shard.replacer.access(vPageNum);
+      }
+      if (pin) {
+        frame.pinCount++;
+      }
+      return frame.page;
+    }
+  }
+
+  /**
+   * Releases one pin on the frame cached under vPageNum.
+   *
+   * @param vPageNum the virtual page number
+   * @param dirty whether the caller modified the page while it was pinned
+   * @throws PageException if the page is not cached or not pinned
+   */
+  public void unpin(long vPageNum, boolean dirty) {
+    Shard shard = shardFor(vPageNum);
+    synchronized(shard) {
+      Frame frame = shard.frames.get(vPageNum);
+      if (frame == null || frame.pinCount == 0) {
+        throw new PageException("unpin of a page that is not pinned");
+      }
+      frame.pinCount--;
+      if (dirty) {
+        frame.page.markDirty();
+      }
+      if (frame.borrowed && frame.pinCount == 0) {
+        shard.frames.remove(vPageNum);
+        frame.page.flush();
+      }
+    }
+  }
+
+  /**
+   * Drops the page cached under vPageNum without flushing it.
+   *
+   * @param vPageNum the virtual page number
+   * @return the page that was removed, or null if none was cached
+   */
+  public Page remove(long vPageNum) {
+    Shard shard = shardFor(vPageNum);
+    synchronized(shard) {
+      Frame frame = shard.frames.remove(vPageNum);
+      if (frame == null) {
+        return null;
+      }
+      shard.replacer.remove(vPageNum);
+      return frame.page;
+    }
+  }
+
+  /**
+   * Drops every page belonging to the PageAllocator with id allocID without flushing them.
+   *
+   * @param allocID the id of the PageAllocator
+   * @return the pages that were removed
+   */
+  public List<Page> removeAll(int allocID) {
+    List<Page> removed = new ArrayList<Page>();
+    for (Shard shard : this.shards) {
+      synchronized(shard) {
+        Iterator<Map.Entry<Long, Frame>> iter = shard.frames.entrySet().iterator();
+        while (iter.hasNext()) {
+          Map.Entry<Long, Frame> entry = iter.next();
+          if (PageAllocator.translateAllocator(entry.getKey()) == allocID) {
+            removed.add(entry.getValue().page);
+            shard.replacer.remove(entry.getKey());
+            iter.remove();
+          }
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Collects the cached pages that have been modified since they were last flushed.
+   *
+   * @return the dirty pages keyed and ordered by virtual page number
+   */
+  public SortedMap<Long, Page> dirtyPages() {
+    SortedMap<Long, Page> dirty = new TreeMap<Long, Page>();
+    for (Shard shard : this.shards) {
+      synchronized(shard) {
+        for (Map.Entry<Long, Frame> entry : shard.frames.entrySet()) {
+          if (entry.getValue().page.isDirty()) {
+            dirty.put(entry.getKey(), entry.getValue().page);
+          }
+        }
+      }
+    }
+    return dirty;
+  }
+
+  /**
+   * Switches every shard to a new replacement policy. The cached frames move to the new policy as
+   * they are, pins included, so callers that hold a pin are not affected.
+   *
+   * @param policyType the replacement policy each shard should run
+   */
+  public synchronized void setPolicyType(ReplacementPolicy.Type policyType) {
+    if (this.policyType == policyType) {
+      return;
+    }
+    for (Shard shard : this.shards) {
+      synchronized(shard) {
+        ReplacementPolicy replacer = newPolicy(policyType, this.framesPerShard);
+        for (Map.Entry<Long, Frame> entry : shard.frames.entrySet()) {
+          if (!entry.getValue().borrowed) {
+            replacer.insert(entry.getKey());
+          }
+        }
+        shard.replacer = replacer;
+      }
+    }
+    this.policyType = policyType;
+  }
+
+  public ReplacementPolicy.Type getPolicyType() {
+    return this.policyType;
+  }
+
+  public int getNumShards() {
+    return this.shards.length;
+  }
+
+  public long getHits(int shard) {
+    Shard s = this.shards[shard];
+    synchronized(s) {
+      return s.hits;
+    }
+  }
+
+  public long getMisses(int shard) {
+    Shard s = this.shards[shard];
+    synchronized(s) {
+      return s.misses;
+    }
+  }
+
+  public long getEvictions(int shard) {
+    Shard s = this.shards[shard];
+    synchronized(s) {
+      return s.evictions;
+    }
+  }
+
+  private Shard shardFor(long vPageNum) {
+    // Fibonacci hashing so consecutive page numbers of one allocator land on different shards
+    long h = vPageNum * 0x9E3779B97F4A7C15L;
+    return this.shards[(int) (h >>> 32) & this.shardMask];
+  }
+
+  /**
+   * A cached page, the number of callers that currently have it pinned, and whether it is held
+   * outside the shard's ReplacementPolicy.
+   */
+  private static class Frame {
+    private Page page;
+    private int pinCount;
+    private boolean borrowed;
+
+    public Frame(Page page) {
+      this.page = page;
+      this.pinCount = 0;
+      this.borrowed = false;
+    }
+  }
+
+  /**
+   * A single independently locked partition of the pool. All fields are guarded by the Shard's
+   * monitor.
+   */
+  private static class Shard implements ReplacementPolicy.Evictable {
+    private Map<Long, Frame> frames;
+    private ReplacementPolicy replacer;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public Shard(ReplacementPolicy replacer) {
+      this.frames = new HashMap<Long, Frame>();
+      this.replacer = replacer;
+      this.hits = 0;
+      this.misses = 0;
+      this.evictions = 0;
+    }
+
+    public boolean canEvict(long vPageNum) {
+      return this.frames.get(vPageNum).pinCount == 0;
+    }
+
+    /**
+     * Evicts one unpinned frame, writing its page back first if it is dirty.
+     *
+     * @return false if every frame tracked by the replacer is pinned
+     */
+    private boolean evict() {
+      long victim = this.replacer.victim(this);
+      if (victim == -1) {
+        return false;
+      }
+      Frame frame = this.frames.remove(victim);
+      this.replacer.remove(victim);
+      frame.page.flush();
+      this.evictions++;
+      return true;
+    }
+
+    /**
+     * Drops the borrowed frames that nobody has pinned, writing their pages back first. These are
+     * pages cached unpinned while the shard was exhausted, so at most one is left at a time.
+     */
+    private void dropBorrowed() {
+      Iterator<Frame> iter = this.frames.values().iterator();
+      while (iter.hasNext()) {
+        Frame frame = iter.next();
+        if (frame.borrowed && frame.pinCount == 0) {
+          iter.remove();
+          frame.page.flush();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A CLOCK (second-chance) replacer over a fixed number of frames. Each frame has a reference bit
+ * that is set whenever its page is accessed; the clock hand sweeps over the frames, clearing set
+ * reference bits and choosing the first evictable frame whose bit is already clear.
+ *
+ * A ClockReplacer is not thread-safe; callers must provide their own locking.
+ */
+public class ClockReplacer implements ReplacementPolicy {
+  private long[] keys;
+  private boolean[] referenced;
+  private boolean[] occupied;
+  private Map<Long, Integer> slots;
+  private int[] freeSlots;
+  private int numFree;
+  private int hand;
+
+  public ClockReplacer(int numFrames) {
+    this.keys = new long[numFrames];
+    this.referenced = new boolean[numFrames];
+    this.occupied = new boolean[numFrames];
+    this.slots = new HashMap<Long, Integer>();
+    this.freeSlots = new int[numFrames];
+    this.numFree = numFrames;
+    for (int i = 0; i < numFrames; i++) {
+      this.freeSlots[i] = numFrames - 1 - i;
+    }
+    this.hand = 0;
+  }
+
+  public boolean isFull() {
+    return this.numFree == 0;
+  }
+
+  public void insert(long vPageNum) {
+    if (this.numFree == 0) {
+      throw new PageException("no free frame for page " + vPageNum);
+    }
+    int slot = this.freeSlots[--this.numFree];
+    this.keys[slot] = vPageNum;
+    this.referenced[slot] = true;
+    this.occupied[slot] = true;
+    this.slots.put(vPageNum, slot);
+  }
+
+  /**
+   * Records an access to a cached page, giving it a second chance on the next sweep.
+   *
+   * @param vPageNum the virtual page number of the page
+   */
+  public void access(long vPageNum) {
+    Integer slot = this.slots.get(vPageNum);
+    if (slot != null) {
+      this.referenced[slot] = true;
+    }
+  }
+
+  public void remove(long vPageNum) {
+    Integer slot = this.slots.remove(vPageNum);
+    if (slot != null) {
+      this.occupied[slot] = false;
+      this.referenced[slot] = false;
+      this.freeSlots[this.numFree++] = slot;
+    }
+  }
+
+  /**
+   * Sweeps the clock to choose a page to evict. See ReplacementPolicy#victim.
+   */
+  public long victim(Evictable evictable) {
+    int numFrames = this.keys.length;
+    // two full sweeps: the first may only clear reference bits
+    for (int i = 0; i < 2 * numFrames; i++) {
+      int slot = this.hand;
+      this.hand = (this.hand + 1) % numFrames;
+      if (!this.occupied[slot] || !evictable.canEvict(this.keys[slot])) {
+        continue;
+      }
+      if (this.referenced[slot]) {
+        this.referenced[slot] = false;
+      } else {
+        return this.keys[slot];
+      }
+    }
+    return -1;
+  }
+}
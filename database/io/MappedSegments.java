@@ -0,0 +1,115 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory maps a file in large fixed-size segments and hands out the blocks in them as slices, so
+ * that bringing a page into memory does not cost an mmap call and a kernel mapping per block.
+ *
+ * A segment's mapping starts small and is doubled whenever a block past its end is requested, up
+ * to segmentSize, so small files are not grown to a whole segment. Slices handed out from an
+ * outgrown mapping stay valid since all mappings of a segment share the same file pages.
+ *
+ * A page is forced on its own rather than with the rest of its segment, with
+ * MappedByteBuffer.force(int, int) where the runtime has it (Java 13 on) and otherwise through a
+ * mapping of just its block.
+ */
+public class MappedSegments {
+  public static final int segmentSize = 64 * 1024 * 1024;
+  private static final int blocksPerSegment = segmentSize / Page.pageSize;
+  private static final int minMappingSize = 64 * 1024;
+
+  // MappedByteBuffer.force(int, int), or null if the runtime predates it
+  private static final Method forceRange = findForceRange();
+
+  private FileChannel fc;
+  private MappedByteBuffer[] segments;
+
+  public MappedSegments(FileChannel fc) {
+    this.fc = fc;
+    this.segments = new MappedByteBuffer[1];
+  }
+
+  /**
+   * Returns a Page backed by the block at blockNum.
+   *
+   * @param blockNum the block in the file
+   * @param pageNum the virtual page number of the page
+   * @param durable whether flushing the page should force it to disk
+   * @return a Page viewing the block
+   */
+  public Page getPage(int blockNum, int pageNum, boolean durable) {
+    int segmentIndex = blockNum / blocksPerSegment;
+    int offset = (blockNum % blocksPerSegment) * Page.pageSize;
+
+    MappedByteBuffer segment = getSegment(segmentIndex, offset + Page.pageSize);
+    ByteBuffer view = segment.duplicate();
+    view.position(offset);
+    view.limit(offset + Page.pageSize);
+    return new Page(this, blockNum, view.slice(), pageNum, durable);
+  }
+
+  /**
+   * Forces the block at blockNum to disk, leaving the other dirty blocks of its segment alone.
+   *
+   * @param blockNum the block in the file
+   */
+  public void force(int blockNum) {
+    int segmentIndex = blockNum / blocksPerSegment;
+    int offset = (blockNum % blocksPerSegment) * Page.pageSize;
+    try {
+      if (forceRange != null) {
+        forceRange.invoke(getSegment(segmentIndex, offset + Page.pageSize), offset, Page.pageSize);
+      } else {
+        this.fc.map(FileChannel.MapMode.READ_WRITE, (long) blockNum * Page.pageSize, Page.pageSize).force();
+      }
+    } catch (IOException e) {
+      throw new PageException("Can't force block: " + blockNum + " ; " + e.getMessage());
+    } catch (IllegalAccessException e) {
+      throw new PageException("Can't force block: " + blockNum + " ; " + e.getMessage());
+    } catch (InvocationTargetException e) {
+      throw new PageException("Can't force block: " + blockNum + " ; " + e.getCause());
+    }
+  }
+
+  private static Method findForceRange() {
+    try {
+      return MappedByteBuffer.class.getMethod("force", int.class, int.class);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private synchronized MappedByteBuffer getSegment(int segmentIndex, int minSize) {
+    if (segmentIndex >= this.segments.length) {
+      MappedByteBuffer[] grown = new MappedByteBuffer[Math.max(segmentIndex + 1, 2 * this.segments.length)];
+      System.arraycopy(this.segments, 0, grown, 0, this.segments.length);
+      this.segments = grown;
+    }
+
+    MappedByteBuffer segment = this.segments[segmentIndex];
+    if (segment != null && segment.capacity() >= minSize) {
+      return segment;
+    }
+
+    int size = segment == null ? minMappingSize : segment.capacity();
+    while (size < minSize) {
+      size *= 2;
+    }
+    size = Math.min(size, segmentSize);
+
+    long position = (long) segmentIndex * segmentSize;
+    try {
+      segment = this.fc.map(FileChannel.MapMode.READ_WRITE, position, size);
+    } catch (IOException e) {
+      throw new PageException("Can't mmap segment: " + segmentIndex + " ; " + e.getMessage());
+    }
+    this.segments[segmentIndex] = segment;
+    return segment;
+  }
+}
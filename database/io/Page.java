@@ -13,9 +13,13 @@ import java.nio.ByteBuffer;
 public class Page {
   public static final int pageSize = 4096;
   
-  private MappedByteBuffer pageData;
+  private ByteBuffer pageData;
+  private MappedByteBuffer mapping;
+  private MappedSegments segments;
+  private int blockNum;
   private int pageNum;
   private boolean durable;
+  private volatile boolean dirty;
 
   /**
    * Create a new page using fc with at offset blockNum with virtual page number pageNum
@@ -33,10 +37,30 @@ public class Page {
     this.durable = durable;
     PageAllocator.incrementCacheMisses();
     try {
-      this.pageData = fc.map(FileChannel.MapMode.READ_WRITE, blockNum*Page.pageSize, Page.pageSize);    
+      this.mapping = fc.map(FileChannel.MapMode.READ_WRITE, blockNum*Page.pageSize, Page.pageSize);    
     } catch (IOException e) {
       throw new PageException("Can't mmap page: " + pageNum + "at block: " + blockNum + " ; " + e.getMessage());
     }
+    this.pageData = this.mapping;
+  }
+
+  /**
+   * Create a new page viewing pageData, a slice of a segment mapped by segments. Flushing the
+   * page forces only its own block of the segment.
+   *
+   * @param segments the mapped segments pageData was sliced from
+   * @param blockNum the block in the file for this page
+   * @param pageData the bytes of this page
+   * @param pageNum the virtual page number
+   * @param durable whether flushing should force the page to disk
+   */
+  Page(MappedSegments segments, int blockNum, ByteBuffer pageData, int pageNum, boolean durable) {
+    this.pageNum = pageNum;
+    this.durable = durable;
+    this.segments = segments;
+    this.blockNum = blockNum;
+    this.pageData = pageData;
+    PageAllocator.incrementCacheMisses();
   }
 
   /**
@@ -117,6 +141,7 @@ public class Page {
 
     pageData.position(position);
     pageData.put(buf, 0, num);
+    this.dirty = true;
   }
 
   /**
@@ -130,6 +155,7 @@ public class Page {
       throw new PageException("readByte is out of bounds of page");
     }
     pageData.put(position, b);
+    this.dirty = true;
   }
 
   /**
@@ -149,7 +175,10 @@ public class Page {
    * @return the 4-byte integer at startPos
    */
   public int readInt(int startPos) {
-    return ByteBuffer.wrap(this.readBytes(startPos, 4)).getInt();
+    if (startPos < 0 || Page.pageSize < startPos + 4) {
+      throw new PageException("readInt is out of bounds of page");
+    }
+    return pageData.getInt(startPos);
   }
 
   /**
@@ -161,15 +190,34 @@ public class Page {
   }
 
   /**
-   * Force the page to disk.
+   * Force the page to disk if it has been modified since it was last flushed.
    */
   public void flush() {
-    if (this.durable) { 
+    if (this.durable && this.dirty) {
+      this.dirty = false;
       PageAllocator.incrementCacheMisses();
-      this.pageData.force();
+      if (this.segments != null) {
+        this.segments.force(this.blockNum);
+      } else {
+        this.mapping.force();
+      }
     }
   }
 
+  /**
+   * @return whether the page has been modified since it was last flushed
+   */
+  public boolean isDirty() {
+    return this.dirty;
+  }
+
+  /**
+   * Marks the page as modified so that the next flush writes it back.
+   */
+  void markDirty() {
+    this.dirty = true;
+  }
+
   /**
    * @return the virtual page number of this page
    */
@@ -5,9 +5,9 @@ import java.nio.channels.FileChannel;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.ByteOrder;
-import java.util.LinkedHashMap;
 import java.lang.IllegalArgumentException;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.NoSuchElementException;
@@ -15,31 +15,89 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.io.Closeable;
 
 /**
- * A PageAllocation system for an OS paging system. Provides memory-mapped paging from the OS, an
- * interface to individual pages with the Page objects, an LRU cache for pages, 16GB worth of paging,
- * and virtual page translation.
+ * A PageAllocation system for an OS paging system. Provides memory-mapped paging from the OS with
+ * the file mapped in large segments that pages are sliced from, an interface to individual pages
+ * with the Page objects, a sharded cache for pages with pinning and a pluggable replacement policy,
+ * 16GB worth of paging, and virtual page translation.
+ *
+ * Which pages are allocated is kept in memory as one bitset per header page plus the set of full
+ * header pages, loaded when the file is opened. Allocation, freeing and validity checks only
+ * consult these; the header pages and master page counts are written through as their persisted
+ * form.
+ *
+ * allocPage and freePage do not force the master page and header page they modify one change at
+ * a time. The changes are collected in memory and forced together (group commit, see
+ * setGroupCommit) once batchSize of them are pending or intervalMillis has passed since the last
+ * force, whichever comes first; by default 64 changes or one second. A batchSize of 1 forces every
+ * change as it is made. Crash-safety:
+ *
+ * - Everything allocated or freed before sync() or close() returns is durable.
+ * - A crash can lose the last batch of allocations and frees. A page whose allocation was lost is
+ *   free again after restart, along with anything written to it. A page whose free was lost is
+ *   still allocated after restart.
+ * - The header pages are the record of which pages are allocated. The master page counts are
+ *   rebuilt from them when the file is opened, so it does not matter whether the master page or a
+ *   header page reaches the disk first. The kernel may write back either at any time anyway.
+ * - The interval is checked whenever metadata changes and on every run of the background writer,
+ *   so the last changes are forced within about an interval plus the background writer's period.
  *
  * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
  */
 public class PageAllocator implements Iterable<Page>, Closeable {
   private static final int numHeaderPages = 1024;
   private static final int cacheSize = 1024;
+  private static final int numCacheShards = 16;
 
   private static AtomicInteger pACounter = new AtomicInteger(0);
-  private static LRUCache<Long, Page> pageLRU = new LRUCache<Long, Page>(cacheSize);
+  private static final BufferPool bufferPool = new BufferPool(cacheSize, numCacheShards);
   private static AtomicLong numIOs = new AtomicLong(0);
   private static AtomicLong cacheMisses = new AtomicLong(0);
+  private static volatile int defaultSyncBatchSize = 64;
+  private static volatile long defaultSyncIntervalMillis = 1000;
+  private static volatile int readAheadPages = 16;
+  private static final Set<PageAllocator> openAllocators =
+    Collections.newSetFromMap(new ConcurrentHashMap<PageAllocator, Boolean>());
+  private static final BackgroundWriter backgroundWriter = new BackgroundWriter();
+  static {
+    backgroundWriter.setInterval(1000);
+  }
+  private static final ExecutorService readAheadExecutor =
+    Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "page-read-ahead");
+        t.setDaemon(true);
+        return t;
+      }
+    });
 
   private Page masterPage;
   private FileChannel fc;
+  private MappedSegments segments;
   private int numPages;
   private int allocID;
   private boolean durable;
+  private int syncBatchSize;
+  private long syncIntervalMillis;
+  private int numUnsynced;
+  private long lastSyncTime;
+  private Set<Integer> unsyncedHeaders;
+
+  // allocation state: one bit per data page of each header page, null for a header page with no
+  // allocated pages, the number of allocated pages under each header page, and which are full
+  private long[][] allocated;
+  private int[] pageCounts;
+  private BitSet fullHeaders;
 
   /**
    * Creates a new PageAllocator that writes its bytes into a file named fName.
@@ -54,13 +112,19 @@ public class PageAllocator implements Iterable<Page>, Closeable {
 
   public PageAllocator(String fName, boolean wipe, boolean durable) {
     this.durable = durable;
+    this.syncBatchSize = defaultSyncBatchSize;
+    this.syncIntervalMillis = defaultSyncIntervalMillis;
+    this.numUnsynced = 0;
+    this.lastSyncTime = System.currentTimeMillis();
+    this.unsyncedHeaders = new HashSet<Integer>();
     try {
       this.fc = new RandomAccessFile(fName, "rw").getChannel();
     } catch (IOException e) {
       throw new PageException("Could not open File: " + e.getMessage());
     }
 
-    this.masterPage = new Page(this.fc, 0, -1);
+    this.segments = new MappedSegments(this.fc);
+    this.masterPage = this.segments.getPage(0, -1, true);
     this.allocID = pACounter.getAndIncrement();
 
     if (wipe) {
@@ -87,44 +151,167 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     int[] pageCounts = new int[ib.capacity()];
     ib.get(pageCounts);
 
+    loadAllocationState(pageCounts);
+
     this.numPages = 0;
     for (int i = 0; i < numHeaderPages; i++) {
-      this.numPages += pageCounts[i];
+      this.numPages += this.pageCounts[i];
     }
+
+    openAllocators.add(this);
   }
 
   /**
-   * Allocates a new page in the file.
+   * Builds the in-memory allocation state from every header page that exists in the file. Master
+   * page counts that disagree with their header page, which happens if a crash hit between forcing
+   * a header page and forcing the master page, are rewritten.
    *
-   * @return the virtual page number of the page
+   * @param pageCounts the counts read from the master page
    */
-  public int allocPage() {
-    byte[] masterBytes = this.masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
+  private void loadAllocationState(int[] pageCounts) {
+    this.allocated = new long[numHeaderPages][];
+    this.pageCounts = new int[numHeaderPages];
+    this.fullHeaders = new BitSet(numHeaderPages);
+
+    long fileSize;
+    try {
+      fileSize = this.fc.size();
+    } catch (IOException e) {
+      throw new PageException("Could not read size of file: " + e.getMessage());
+    }
 
-    Page headerPage = null;
-    int headerIndex = -1;
+    boolean changed = false;
     for (int i = 0; i < numHeaderPages; i++) {
-      if (pageCounts[i] < Page.pageSize) {
-        // Found header page with space
-        headerPage = getHeadPage(i);
-        headerIndex = i;
+      long headOffset = (long) headBlockID(i) * Page.pageSize;
+      if (headOffset >= fileSize) {
         break;
       }
+      byte[] headerBytes = getHeadPage(i).readBytes();
+      long[] bits = new long[Page.pageSize / 64];
+      int count = 0;
+      for (int j = 0; j < Page.pageSize; j++) {
+        if (headerBytes[j] != 0) {
+          bits[j >>> 6] |= 1L << j;
+          count++;
+        }
+      }
+      if (count > 0) {
+        this.allocated[i] = bits;
+      }
+      this.pageCounts[i] = count;
+      if (count == Page.pageSize) {
+        this.fullHeaders.set(i);
+      }
+      if (count != pageCounts[i]) {
+        this.masterPage.writeBytes(i*4, 4, ByteBuffer.allocate(4).putInt(count).array());
+        changed = true;
+      }
+    }
+    if (changed) {
+      this.masterPage.flush();
+    }
+  }
+
+  /**
+   * Sets the group commit defaults for PageAllocators created from now on.
+   *
+   * @param batchSize see setGroupCommit
+   * @param intervalMillis see setGroupCommit
+   */
+  public static void setDefaultGroupCommit(int batchSize, long intervalMillis) {
+    if (batchSize < 1 || intervalMillis < 0) {
+      throw new IllegalArgumentException("batch size must be positive and interval non-negative");
+    }
+    defaultSyncBatchSize = batchSize;
+    defaultSyncIntervalMillis = intervalMillis;
+  }
+
+  /**
+   * Switches this allocator to group commit: master and header page changes are forced once
+   * batchSize of them are pending or intervalMillis has passed since the last force. A batchSize
+   * of 1 forces on every change. Has no effect on non-durable allocators.
+   *
+   * @param batchSize the number of allocations and frees to collect before forcing
+   * @param intervalMillis the longest time to go between forces, or 0 for no time limit
+   */
+  public synchronized void setGroupCommit(int batchSize, long intervalMillis) {
+    if (batchSize < 1 || intervalMillis < 0) {
+      throw new IllegalArgumentException("batch size must be positive and interval non-negative");
+    }
+    this.syncBatchSize = batchSize;
+    this.syncIntervalMillis = intervalMillis;
+    if (this.numUnsynced >= batchSize) {
+      sync();
+    }
+  }
+
+  /**
+   * Forces all pending master and header page changes to disk.
+   */
+  public synchronized void sync() {
+    if (this.numUnsynced == 0) {
+      return;
+    }
+    for (int headIndex : this.unsyncedHeaders) {
+      Page headPage = getHeadPage(headIndex);
+      headPage.markDirty();
+      headPage.flush();
+    }
+    this.masterPage.markDirty();
+    this.masterPage.flush();
+    this.unsyncedHeaders.clear();
+    this.numUnsynced = 0;
+    this.lastSyncTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Forces the pending metadata changes if intervalMillis has passed since the last force.
+   */
+  private synchronized void syncIfStale() {
+    if (this.numUnsynced > 0 && this.syncIntervalMillis > 0 &&
+        System.currentTimeMillis() - this.lastSyncTime >= this.syncIntervalMillis) {
+      sync();
+    }
+  }
+
+  /**
+   * Records a change to the master page and header page headIndex, forcing them if the batch is
+   * full or the interval has passed.
+   */
+  private void metadataChanged(int headIndex) {
+    if (!this.durable) {
+      return;
     }
+    this.unsyncedHeaders.add(headIndex);
+    this.numUnsynced++;
+    if (this.numUnsynced >= this.syncBatchSize ||
+        (this.syncIntervalMillis > 0 &&
+         System.currentTimeMillis() - this.lastSyncTime >= this.syncIntervalMillis)) {
+      sync();
+    }
+  }
 
-    if (headerPage == null) {
+  /**
+   * Allocates a new page in the file.
+   *
+   * @return the virtual page number of the page
+   */
+  public synchronized int allocPage() {
+    int headerIndex = this.fullHeaders.nextClearBit(0);
+    if (headerIndex >= numHeaderPages) {
       throw new PageException("No free Pages Available");
     }
 
-    byte[] headerBytes = headerPage.readBytes();
-    int pageIndex = -1;
+    long[] bits = this.allocated[headerIndex];
+    if (bits == null) {
+      bits = new long[Page.pageSize / 64];
+      this.allocated[headerIndex] = bits;
+    }
 
-    for (int i = 0; i < Page.pageSize; i++) {
-      if (headerBytes[i] == 0) {
-        pageIndex = i;
+    int pageIndex = -1;
+    for (int w = 0; w < bits.length; w++) {
+      if (bits[w] != -1L) {
+        pageIndex = (w << 6) + Long.numberOfTrailingZeros(~bits[w]);
         break;
       }
     }
@@ -133,15 +320,17 @@ public class PageAllocator implements Iterable<Page>, Closeable {
      throw new PageException("Header page should have free page but doesnt");
     }
 
-    int newCount = pageCounts[headerIndex] + 1;
+    bits[pageIndex >>> 6] |= 1L << pageIndex;
+    int newCount = ++this.pageCounts[headerIndex];
+    if (newCount == Page.pageSize) {
+      this.fullHeaders.set(headerIndex);
+    }
+
     byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
     this.masterPage.writeBytes(headerIndex*4, 4, newCountBytes);
-    headerPage.writeByte(pageIndex, (byte) 1);
+    getHeadPage(headerIndex).writeByte(pageIndex, (byte) 1);
 
-    if (this.durable) {
-      this.masterPage.flush();
-      headerPage.flush();
-    }
+    metadataChanged(headerIndex);
 
     int pageNum = headerIndex * Page.pageSize + pageIndex;
     fetchPage(pageNum).wipe();
@@ -156,16 +345,41 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @return a Page object wrapping the page corresponding to pageNum
    */
   public Page fetchPage(int pageNum) {
+    return fetchPage(pageNum, false);
+  }
+
+  /**
+   * Fetches the page corresponding to virtual page number pageNum and pins it in the page cache.
+   * A pinned page is never evicted; every call to pin must be matched by a call to unpin.
+   *
+   * @param pageNum the virtual page number
+   * @return a Page object wrapping the page corresponding to pageNum
+   */
+  public Page pin(int pageNum) {
+    return fetchPage(pageNum, true);
+  }
+
+  /**
+   * Releases a pin taken by pin.
+   *
+   * @param pageNum the virtual page number
+   * @param dirty whether the page was modified while it was pinned
+   */
+  public void unpin(int pageNum, boolean dirty) {
+    bufferPool.unpin(translatePageNum(pageNum), dirty);
+  }
+
+  private Page fetchPage(int pageNum, boolean pin) {
     if (pageNum < 0) {
       throw new PageException("invalid page number -- out of bounds");
     }
 
     numIOs.getAndIncrement();
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        return pageLRU.get(translatePageNum(pageNum));
-      }
+    long vPageNum = translatePageNum(pageNum);
+    Page cachedPage = bufferPool.get(vPageNum, pin);
+    if (cachedPage != null) {
+      return cachedPage;
     }
 
     int headPageIndex = pageNum/Page.pageSize;
@@ -174,31 +388,13 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       throw new PageException("invalid page number -- out of bounds");
     }
 
-    byte[] headCountBytes = this.masterPage.readBytes(headPageIndex*4, 4);
-    int headCount = ByteBuffer.wrap(headCountBytes).getInt();
-
-    if (headCount < 1) {
+    if (!isAllocated(pageNum)) {
       throw new PageException("invalid page number -- page not allocated");
     }
 
-    Page headPage = getHeadPage(headPageIndex);
-
-    int dataPageIndex = pageNum % Page.pageSize;
-
-    byte validByte = headPage.readByte(dataPageIndex);
+    Page dataPage = this.segments.getPage(dataBlockID(pageNum), pageNum, this.durable);
 
-    if (validByte == 0) {
-      throw new PageException("invalid page number -- page not allocated");
-    }
-
-    int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
-    Page dataPage = new Page(this.fc, dataBlockID, pageNum, this.durable);
-
-    synchronized(PageAllocator.class) {
-      pageLRU.put(translatePageNum(pageNum), dataPage);
-    }
-
-    return dataPage;
+    return bufferPool.putIfAbsent(vPageNum, dataPage, pin);
   }
 
   /**
@@ -208,7 +404,7 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @param p the page to free
    * @return whether or not the page was freed
    */
-  public boolean freePage(Page p) {
+  public synchronized boolean freePage(Page p) {
     if (this.durable) {
       p.flush();
     }
@@ -216,31 +412,20 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     int headPageIndex = pageNum/Page.pageSize;
     int dataPageIndex = pageNum % Page.pageSize;
 
-    Page headPage = getHeadPage(headPageIndex);
-
-    if (headPage.readByte(dataPageIndex) == 0) {
+    if (!isAllocated(pageNum)) {
       return false;
     }
 
-    headPage.writeByte(dataPageIndex, (byte) 0);
-    if (this.durable) {
-      headPage.flush();
-    }
-    byte[] countBytes = masterPage.readBytes(4*headPageIndex,4);
-    int oldCount = ByteBuffer.wrap(countBytes).getInt();
+    this.allocated[headPageIndex][dataPageIndex >>> 6] &= ~(1L << dataPageIndex);
+    int newCount = --this.pageCounts[headPageIndex];
+    this.fullHeaders.clear(headPageIndex);
 
-    int newCount = oldCount - 1;
+    getHeadPage(headPageIndex).writeByte(dataPageIndex, (byte) 0);
     byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
     masterPage.writeBytes(headPageIndex*4, 4, newCountBytes);
-    if (this.durable) {
-      masterPage.flush();
-    }
+    metadataChanged(headPageIndex);
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        pageLRU.remove(translatePageNum(pageNum));
-      }
-    }
+    bufferPool.remove(translatePageNum(pageNum));
 
     this.numPages -= 1;
     return true;
@@ -266,41 +451,22 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   /**
    * Close this PageAllocator.
    */
-  public void close() {
+  public synchronized void close() {
     if (this.masterPage == null) {
       return;
     }
     if (this.durable) {
+      sync();
       this.masterPage.flush();
     }
-    List<Long> toRemove = new ArrayList<Long>();
-    Set<Long> vPageNums = null;
-    List<Page> toFlush = new ArrayList<Page>();
-
-    synchronized(PageAllocator.class) {
-      vPageNums = pageLRU.keySet();
-    }
-
-    for (Long l : vPageNums) {
-      if (translateAllocator(l) == this.allocID) {
-        toRemove.add(l);
-      }
-    }
-
-    synchronized(PageAllocator.class) {
-      for (Long vPageNum : toRemove) {
-        if (pageLRU.containsKey(vPageNum)) {
-          toFlush.add(pageLRU.get(vPageNum));
-          pageLRU.remove(vPageNum);
-        }
-      }
-    }
+    List<Page> toFlush = bufferPool.removeAll(this.allocID);
     if (this.durable) {
       for (Page p : toFlush) {
         p.flush();
       }
     }
     this.masterPage = null;
+    openAllocators.remove(this);
     try {
       this.fc.close();
     } catch (IOException e) {
@@ -308,12 +474,114 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     }
   }
 
+  /**
+   * Finds the first allocated page at or after pageNum. Synchronized like isAllocated, since
+   * allocPage and freePage change the bitsets from other threads.
+   *
+   * @param pageNum the virtual page number to start from
+   * @return the virtual page number of the next allocated page, or -1 if there is none
+   */
+  private synchronized int nextAllocated(int pageNum) {
+    if (pageNum < 0) {
+      pageNum = 0;
+    }
+    for (int headIndex = pageNum / Page.pageSize; headIndex < numHeaderPages; headIndex++) {
+      long[] bits = this.allocated[headIndex];
+      int start = headIndex == pageNum / Page.pageSize ? pageNum % Page.pageSize : 0;
+      if (bits == null || this.pageCounts[headIndex] == 0) {
+        continue;
+      }
+      for (int w = start >>> 6; w < bits.length; w++) {
+        long word = bits[w];
+        if (w == start >>> 6) {
+          word &= -1L << start;
+        }
+        if (word != 0) {
+          return headIndex * Page.pageSize + (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Brings the given pages into the page cache on the read-ahead thread, faulting their bytes in
+   * so that a scan reaching them does not wait on the disk.
+   *
+   * @param pageNums the virtual page numbers to load
+   */
+  private void readAhead(final int[] pageNums) {
+    readAheadExecutor.execute(new Runnable() {
+      public void run() {
+        for (int pageNum : pageNums) {
+          long vPageNum = translatePageNum(pageNum);
+          Page page;
+          // under the allocator's lock, so that close cannot run between the check and the insert
+          // and leave a frame of a closed file in the cache
+          synchronized (PageAllocator.this) {
+            if (PageAllocator.this.masterPage == null) {
+              return;
+            }
+            if (bufferPool.contains(vPageNum) || !isAllocated(pageNum)) {
+              continue;
+            }
+            try {
+              page = bufferPool.putIfAbsent(vPageNum,
+                  segments.getPage(dataBlockID(pageNum), pageNum, durable), false);
+            } catch (PageException e) {
+              // the page could not be mapped; the scan will fetch it itself
+              return;
+            }
+          }
+          page.readByte(0);
+        }
+      }
+    });
+  }
+
+  /**
+   * Sets how many pages ahead of a sequential scan are loaded in the background. 0 turns
+   * read-ahead off.
+   *
+   * @param numPages the number of pages to read ahead
+   */
+  public static void setReadAhead(int numPages) {
+    if (numPages < 0) {
+      throw new IllegalArgumentException("read-ahead can't be negative");
+    }
+    readAheadPages = numPages;
+  }
+
+  /**
+   * Reads the allocation bitsets under this allocator's monitor, which allocPage and freePage
+   * hold while they change them; fetchPage, PageIterator and the read-ahead thread call this
+   * without holding it.
+   *
+   * @param pageNum the virtual page number
+   * @return whether pageNum is currently allocated
+   */
+  private synchronized boolean isAllocated(int pageNum) {
+    if (pageNum < 0 || pageNum >= numHeaderPages * Page.pageSize) {
+      return false;
+    }
+    long[] bits = this.allocated[pageNum / Page.pageSize];
+    int dataPageIndex = pageNum % Page.pageSize;
+    return bits != null && (bits[dataPageIndex >>> 6] & (1L << dataPageIndex)) != 0;
+  }
+
   private Page getHeadPage(int headIndex) {
-    int headBlockID = 1 + headIndex*(Page.pageSize + 1);
-    return new Page(this.fc, headBlockID, -1);
+    return this.segments.getPage(headBlockID(headIndex), -1, true);
+  }
+
+  private static int headBlockID(int headIndex) {
+    return 1 + headIndex*(Page.pageSize + 1);
   }
 
-  public int getNumPages() {
+  private static int dataBlockID(int pageNum) {
+    return 2 + (pageNum/Page.pageSize)*(Page.pageSize + 1) + pageNum % Page.pageSize;
+  }
+
+  public synchronized int getNumPages() {
     return this.numPages;
   }
 
@@ -333,11 +601,98 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     return PageAllocator.cacheMisses.get();
   }
 
+  /**
+   * Switches the page cache shared by all PageAllocators to the given replacement policy. Cached
+   * pages stay cached, and pages pinned under the old policy stay pinned.
+   *
+   * @param policyType the replacement policy the page cache should use
+   */
+  public static void setReplacementPolicy(ReplacementPolicy.Type policyType) {
+    bufferPool.setPolicyType(policyType);
+  }
+
+  /**
+   * Writes back every dirty page in the page cache, in virtual page number order.
+   */
+  static void flushDirtyPages() {
+    for (Page p : bufferPool.dirtyPages().values()) {
+      p.flush();
+    }
+  }
+
+  /**
+   * Forces the pending metadata changes of every open PageAllocator whose group commit interval
+   * has passed.
+   */
+  static void syncStaleAllocators() {
+    for (PageAllocator allocator : openAllocators) {
+      allocator.syncIfStale();
+    }
+  }
+
+  /**
+   * Sets how often the background writer writes back dirty pages in the page cache. 0 stops it.
+   *
+   * @param intervalMillis the time between runs of the background writer
+   */
+  public static void setBackgroundWriterInterval(long intervalMillis) {
+    backgroundWriter.setInterval(intervalMillis);
+  }
+
+  /**
+   * Makes everything written so far durable: writes back every dirty cached page and forces the
+   * pending metadata changes of every open PageAllocator.
+   */
+  public static void checkpoint() {
+    flushDirtyPages();
+    for (PageAllocator allocator : openAllocators) {
+      allocator.sync();
+    }
+  }
+
+  /**
+   * @return the replacement policy used by the page cache
+   */
+  public static ReplacementPolicy.Type getReplacementPolicy() {
+    return PageAllocator.bufferPool.getPolicyType();
+  }
+
+  /**
+   * @return the number of independently locked shards in the page cache
+   */
+  public static int getNumCacheShards() {
+    return PageAllocator.bufferPool.getNumShards();
+  }
+
+  /**
+   * @param shard the index of the cache shard
+   * @return the number of lookups that found their page in the given shard
+   */
+  public static long getShardHits(int shard) {
+    return PageAllocator.bufferPool.getHits(shard);
+  }
+
+  /**
+   * @param shard the index of the cache shard
+   * @return the number of lookups that did not find their page in the given shard
+   */
+  public static long getShardMisses(int shard) {
+    return PageAllocator.bufferPool.getMisses(shard);
+  }
+
+  /**
+   * @param shard the index of the cache shard
+   * @return the number of pages the given shard has evicted
+   */
+  public static long getShardEvictions(int shard) {
+    return PageAllocator.bufferPool.getEvictions(shard);
+  }
+
   private long translatePageNum(int pageNum) {
     return (((long) this.allocID) << 32) | (((long) pageNum) & 0xFFFFFFFFL);
   }
 
-  static private int translateAllocator(long vPageNum) {
+  static int translateAllocator(long vPageNum) {
     return (int) ((vPageNum & 0xFFFFFFFF00000000L) >> 32);
   }
 
@@ -348,34 +703,55 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       return new PageIterator();
   }
 
+  /**
+   * Iterates over the allocated pages in page number order. Once a scan has read two pages, the
+   * next readAheadPages allocated pages are loaded in the background, and again every time the
+   * scan gets halfway through the pages read ahead.
+   */
   private class PageIterator implements Iterator<Page> {
-    private int pageNum;
     private int cursor;
+    private int numReturned;
+    private int readAheadMark;
+    private int readAheadEnd;
 
     public PageIterator() {
-      this.pageNum = 0;
       this.cursor = 0;
+      this.numReturned = 0;
+      this.readAheadMark = 0;
+      this.readAheadEnd = 0;
     }
 
     public boolean hasNext() {
-      return this.pageNum < PageAllocator.this.numPages;
+      return PageAllocator.this.nextAllocated(this.cursor) != -1;
     }
 
     public Page next() {
-      if (this.hasNext()) {
-        while (true) {
-          Page p;
-          try {
-            p = PageAllocator.this.fetchPage(cursor);
-            cursor++;
-            pageNum++;
-            return p;
-          } catch (PageException e) {
-            cursor++;
-          }
+      int pageNum = PageAllocator.this.nextAllocated(this.cursor);
+      if (pageNum == -1) {
+        throw new NoSuchElementException();
+      }
+      this.cursor = pageNum + 1;
+      this.numReturned++;
+
+      int numPages = readAheadPages;
+      if (numPages > 0 && this.numReturned >= 2 && pageNum >= this.readAheadMark) {
+        int[] toLoad = new int[numPages];
+        int n = 0;
+        int next = PageAllocator.this.nextAllocated(Math.max(this.cursor, this.readAheadEnd));
+        while (n < numPages && next != -1) {
+          toLoad[n++] = next;
+          next = PageAllocator.this.nextAllocated(next + 1);
+        }
+        if (n > 0) {
+          PageAllocator.this.readAhead(Arrays.copyOf(toLoad, n));
+          this.readAheadMark = toLoad[n / 2];
+          this.readAheadEnd = toLoad[n - 1] + 1;
+        } else {
+          this.readAheadMark = Integer.MAX_VALUE;
         }
       }
-      throw new NoSuchElementException();
+
+      return PageAllocator.this.fetchPage(pageNum);
     }
 
     public void remove() {
@@ -0,0 +1,63 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * A page replacement policy for one shard of the BufferPool. A policy tracks the virtual page
+ * numbers cached in a fixed number of frames and chooses which one to evict when the frames are
+ * full.
+ *
+ * Implementations are not thread-safe; the BufferPool calls them while holding the shard's lock.
+ */
+public interface ReplacementPolicy {
+
+  /**
+   * The replacement policies that a BufferPool can be built with.
+   */
+  public enum Type {
+    /** Second-chance CLOCK sweep; cheap, but a large scan flushes the whole cache. */
+    CLOCK,
+    /** Scan-resistant 2Q; pages must be referenced twice before they can displace hot pages. */
+    TWO_QUEUE
+  }
+
+  /**
+   * Callback used by a policy to ask whether a frame may be evicted.
+   */
+  public interface Evictable {
+    boolean canEvict(long vPageNum);
+  }
+
+  /**
+   * @return true if every frame is in use
+   */
+  boolean isFull();
+
+  /**
+   * Starts tracking a newly cached page. There must be a free frame.
+   *
+   * @param vPageNum the virtual page number of the page
+   */
+  void insert(long vPageNum);
+
+  /**
+   * Records an access to a cached page.
+   *
+   * @param vPageNum the virtual page number of the page
+   */
+  void access(long vPageNum);
+
+  /**
+   * Stops tracking a page and frees its frame.
+   *
+   * @param vPageNum the virtual page number of the page
+   */
+  void remove(long vPageNum);
+
+  /**
+   * Chooses a page to evict. The chosen page is not removed; callers should call remove once they
+   * have written it back.
+   *
+   * @param evictable decides whether a frame may be evicted (e.g. it is not pinned)
+   * @return the virtual page number of the victim, or -1 if every frame is unevictable
+   */
+  long victim(Evictable evictable);
+}
@@ -0,0 +1,109 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * A scan-resistant 2Q replacer (Johnson and Shasha, VLDB '94). Pages referenced once enter a FIFO
+ * probation queue (A1in) and are evicted from there first; only a page that is referenced again
+ * after falling out of probation, while it is still remembered in the ghost queue (A1out), is
+ * admitted to the main LRU queue (Am). A sequential scan therefore only ever cycles through the
+ * probation queue and leaves hot pages such as index inner nodes and table header pages cached.
+ *
+ * A TwoQueueReplacer is not thread-safe; callers must provide their own locking.
+ */
+public class TwoQueueReplacer implements ReplacementPolicy {
+  private int numFrames;
+  private int maxProbation;
+  private int maxGhosts;
+
+  // both maps are used as ordered sets, least recently admitted or used first
+  private LinkedHashMap<Long, Boolean> probation;
+  private LinkedHashMap<Long, Boolean> main;
+  private LinkedHashSet<Long> ghosts;
+
+  public TwoQueueReplacer(int numFrames) {
+    this.numFrames = numFrames;
+    // the tuning suggested by the paper: A1in holds a quarter of the frames and A1out remembers
+    // half as many pages as fit in the cache
+    this.maxProbation = Math.max(1, numFrames / 4);
+    this.maxGhosts = Math.max(1, numFrames / 2);
+    this.probation = new LinkedHashMap<Long, Boolean>();
+    this.main = new LinkedHashMap<Long, Boolean>(16, 0.75f, true);
+    this.ghosts = new LinkedHashSet<Long>();
+  }
+
+  public boolean isFull() {
+    return this.probation.size() + this.main.size() >= this.numFrames;
+  }
+
+  public void insert(long vPageNum) {
+    if (this.isFull()) {
+      throw new PageException("no free frame for page " + vPageNum);
+    }
+    if (this.ghosts.remove(vPageNum)) {
+      this.main.put(vPageNum, Boolean.TRUE);
+    } else {
+      this.probation.put(vPageNum, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Records an access to a cached page. Accesses to pages on probation are deliberately ignored
+   * so that a burst of correlated references does not promote a page.
+   *
+   * @param vPageNum the virtual page number of the page
+   */
+  public void access(long vPageNum) {
+    // get on an access-ordered LinkedHashMap moves the entry to the most recently used end
+    this.main.get(vPageNum);
+  }
+
+  public void remove(long vPageNum) {
+    if (this.probation.remove(vPageNum) == null) {
+      this.main.remove(vPageNum);
+    }
+  }
+
+  /**
+   * Chooses the oldest page on probation while probation is over its share of the frames, and the
+   * least recently used main page otherwise. See ReplacementPolicy#victim.
+   */
+  public long victim(Evictable evictable) {
+    long victim = -1;
+    boolean fromProbation = false;
+
+    if (this.probation.size() > this.maxProbation || this.main.isEmpty()) {
+      victim = firstEvictable(this.probation.keySet().iterator(), evictable);
+      fromProbation = victim != -1;
+    }
+    if (victim == -1) {
+      victim = firstEvictable(this.main.keySet().iterator(), evictable);
+    }
+    if (victim == -1) {
+      victim = firstEvictable(this.probation.keySet().iterator(), evictable);
+      fromProbation = victim != -1;
+    }
+
+    if (fromProbation) {
+      this.ghosts.add(victim);
+      if (this.ghosts.size() > this.maxGhosts) {
+        Iterator<Long> oldest = this.ghosts.iterator();
+        oldest.next();
+        oldest.remove();
+      }
+    }
+    return victim;
+  }
+
+  private static long firstEvictable(Iterator<Long> candidates, Evictable evictable) {
+    while (candidates.hasNext()) {
+      long vPageNum = candidates.next();
+      if (evictable.canEvict(vPageNum)) {
+        return vPageNum;
+      }
+    }
+    return -1;
+  }
+}
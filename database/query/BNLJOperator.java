@@ -10,6 +10,7 @@ import edu.berkeley.cs186.database.datatypes.DataType;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.SlotBitmap;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 public class BNLJOperator extends JoinOperator {
@@ -54,14 +55,10 @@ public class BNLJOperator extends JoinOperator {
         private Page leftPage;
         private Page rightPage;
         private Page[] block;
-        private byte[] leftPageHeader;
-        private byte[] rightPageHeader;
+        private SlotBitmap leftPageHeader;
+        private SlotBitmap rightPageHeader;
         private int leftPageIndex;
-        private int leftPageHeaderSize;
-        private int leftEntrySize;
         private int rightPageIndex;
-        private int rightPageHeaderSize;
-        private int rightEntrySize;
         private int block_size;
         private int currBlockIndex;
 
@@ -101,13 +98,9 @@ public class BNLJOperator extends JoinOperator {
             this.leftPage = null;
             this.leftPageHeader = null;
             this.leftPageIndex = 0;
-            this.leftPageHeaderSize = BNLJOperator.this.getHeaderSize(this.leftTableName);
-            this.leftEntrySize = BNLJOperator.this.getEntrySize(this.leftTableName);
             this.rightPage = null;
             this.rightPageHeader = null;
             this.rightPageIndex = 0;
-            this.rightPageHeaderSize = BNLJOperator.this.getHeaderSize(this.rightTableName);
-            this.rightEntrySize = BNLJOperator.this.getEntrySize(this.rightTableName);
 
         }
 
@@ -127,16 +120,22 @@ public class BNLJOperator extends JoinOperator {
                 if (this.block == null) {
                     this.block = new Page[block_size];
                     int i = 0;
-                    while ((i < this.block_size) && (this.leftIterator.hasNext())) {
-                        this.block[i] = this.leftIterator.next();
-                        i++;
+                    try {
+                        // pin the block so its pages stay cached while the right table is scanned
+                        while ((i < this.block_size) && (this.leftIterator.hasNext())) {
+                            int pageNum = this.leftIterator.next().getPageNum();
+                            this.block[i] = BNLJOperator.this.pinPage(this.leftTableName, pageNum);
+                            i++;
+                        }
+                    } catch (DatabaseException e) {
+                        return false;
                     }
                     this.leftPage = this.block[0];
                     if (this.leftPage == null) {
                         return false;
                     }
                     try {
-                        this.leftPageHeader = BNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage);
+                        this.leftPageHeader = new SlotBitmap(BNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage));
                         this.rightIterator = BNLJOperator.this.getPageIterator(this.rightTableName);
                         this.rightIterator.next();
                     } catch (DatabaseException e) {
@@ -149,11 +148,16 @@ public class BNLJOperator extends JoinOperator {
                     if (this.rightIterator.hasNext()) {
                         this.rightPage = this.rightIterator.next();
                         try {
-                            this.rightPageHeader = BNLJOperator.this.getPageHeader(this.rightTableName, this.rightPage);
+                            this.rightPageHeader = new SlotBitmap(BNLJOperator.this.getPageHeader(this.rightTableName, this.rightPage));
                         } catch (DatabaseException e) {
                             return false;
                         }
                     } else {
+                        try {
+                            this.unpinBlock();
+                        } catch (DatabaseException e) {
+                            return false;
+                        }
                         this.block = null;
                     }
                 }
@@ -169,7 +173,7 @@ public class BNLJOperator extends JoinOperator {
                             this.rightPage = null;
                         }
                         try {
-                            this.leftPageHeader = BNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage);
+                            this.leftPageHeader = new SlotBitmap(BNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage));
                         } catch (DatabaseException e) {
                             return false;
                         }
@@ -178,7 +182,7 @@ public class BNLJOperator extends JoinOperator {
                         this.leftPage = this.block[this.currBlockIndex];
                         this.rightPage = null;
                         try {
-                            this.leftPageHeader = BNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage);
+                            this.leftPageHeader = new SlotBitmap(BNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage));
                         } catch (DatabaseException e) {
                             return false;
                         }
@@ -189,7 +193,11 @@ public class BNLJOperator extends JoinOperator {
                 else if (this.leftRecord == null) {
                     int slot = this.getNextFilledSlotNum(this.leftPageIndex, this.leftPageHeader);
                     if (slot >= 0) {
-                        this.leftRecord = this.getRecord(slot, this.leftPage, "left");
+                        try {
+                            this.leftRecord = this.getRecord(slot, this.leftPage, "left");
+                        } catch (DatabaseException e) {
+                            return false;
+                        }
                     } else {
                         this.leftPage = null;
                         this.leftPageIndex = 0;
@@ -198,9 +206,13 @@ public class BNLJOperator extends JoinOperator {
                 else {
                     int slot = this.getNextFilledSlotNum(this.rightPageIndex, this.rightPageHeader);
                     while (slot >= 0) {
-                        this.rightRecord = this.getRecord(slot, this.rightPage, "right");
-                        DataType leftJoinValue = this.leftRecord.getValues().get(BNLJOperator.this.getLeftColumnIndex());
-                        DataType rightJoinValue = this.rightRecord.getValues().get(BNLJOperator.this.getRightColumnIndex());
+                        try {
+                            this.rightRecord = this.getRecord(slot, this.rightPage, "right");
+                        } catch (DatabaseException e) {
+                            return false;
+                        }
+                        DataType leftJoinValue = this.leftRecord.getValue(BNLJOperator.this.getLeftColumnIndex());
+                        DataType rightJoinValue = this.rightRecord.getValue(BNLJOperator.this.getRightColumnIndex());
 
                         if (leftJoinValue.equals(rightJoinValue)) {
                             List<DataType> leftValues = new ArrayList<DataType>(this.leftRecord.getValues());
@@ -218,21 +230,28 @@ public class BNLJOperator extends JoinOperator {
             }
         }
 
+        /**
+         * releases the pins held on the pages of the current block
+         */
+        private void unpinBlock() throws DatabaseException {
+            for (Page p : this.block) {
+                if (p != null) {
+                    BNLJOperator.this.unpinPage(this.leftTableName, p.getPageNum());
+                }
+            }
+        }
+
         /**
          * gets the next record on this page starting from given index
          * so get record(0, page, "left") will get the first record on the given left page
          */
-        private Record getRecord(int slot, Page cur_page, String side) {
+        private Record getRecord(int slot, Page cur_page, String side) throws DatabaseException {
             if (side == "left") {
                 this.leftPageIndex = slot + 1;
-                int offset = this.leftPageHeaderSize + slot * this.leftEntrySize;
-                byte[] encoded_record = cur_page.readBytes(offset, this.leftEntrySize);
-                return BNLJOperator.this.getLeftSource().getOutputSchema().decode(encoded_record);
+                return BNLJOperator.this.readRecord(this.leftTableName, cur_page, slot);
             } else {
                 this.rightPageIndex = slot + 1;
-                int offset = this.rightPageHeaderSize + slot * this.rightEntrySize;
-                byte[] encoded_record = cur_page.readBytes(offset, this.rightEntrySize);
-                return BNLJOperator.this.getRightSource().getOutputSchema().decode(encoded_record);
+                return BNLJOperator.this.readRecord(this.rightTableName, cur_page, slot);
             }
         }
 
@@ -242,19 +261,8 @@ public class BNLJOperator extends JoinOperator {
          * @param page_header page header to check for records
          * @return next valid slot number or -1 if there are none
          */
-        private int getNextFilledSlotNum(int start, byte[] page_header) {
-            int count = 0;
-            for (byte b : page_header) {
-                for (int mask = 0x80; mask != 0x00; mask >>>= 1) {
-                    if ((b & (byte) mask) == (byte) mask) {
-                        if (count >= start) {
-                            return count;
-                        }
-                    }
-                    count++;
-                }
-            }
-            return -1;
+        private int getNextFilledSlotNum(int start, SlotBitmap page_header) {
+            return page_header.nextSetSlot(start);
         }
 
         /**
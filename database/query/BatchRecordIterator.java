@@ -0,0 +1,43 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.table.Record;
+
+/**
+ * Turns the ColumnBatches of an operator running in batch mode back into records.
+ */
+class BatchRecordIterator implements Iterator<Record> {
+  private Iterator<ColumnBatch> batches;
+  private ColumnBatch batch;
+  private int index;
+
+  public BatchRecordIterator(Iterator<ColumnBatch> batches) {
+    this.batches = batches;
+    this.batch = null;
+    this.index = 0;
+  }
+
+  public boolean hasNext() {
+    while (this.batch == null || this.index == this.batch.getNumSelected()) {
+      if (!this.batches.hasNext()) {
+        return false;
+      }
+      this.batch = this.batches.next();
+      this.index = 0;
+    }
+    return true;
+  }
+
+  public Record next() {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return this.batch.getRecord(this.batch.getSelection()[this.index++]);
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
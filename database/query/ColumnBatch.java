@@ -0,0 +1,361 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.cs186.database.datatypes.BoolDataType;
+import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.datatypes.FloatDataType;
+import edu.berkeley.cs186.database.datatypes.IntDataType;
+import edu.berkeley.cs186.database.datatypes.StringDataType;
+import edu.berkeley.cs186.database.table.LazyRecord;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * A batch of up to CAPACITY rows stored column by column as primitive arrays, used by the batch
+ * execution mode of QueryOperator. Integer, float and boolean columns are stored as int[], float[]
+ * and boolean[]; string columns are stored as codes into the batch's Dictionary. A scan gives
+ * every batch a new Dictionary, so codes are only comparable within one batch.
+ *
+ * Operators filter a batch by shrinking its selection vector rather than copying rows, so only
+ * the rows listed in the selection vector are part of the batch.
+ *
+ * Properties:
+ * `types`: the type of each column
+ * `sizes`: the size of each column, used to pad string values
+ * `ints`, `floats`, `bools`, `codes`: the column arrays; only the array for a column's type is set
+ * `dictionary`: the dictionary the string codes refer to
+ * `numRows`: the number of rows in the column arrays
+ * `selection`: the rows that are part of the batch, in order
+ * `numSelected`: the number of entries of selection that are in use
+ */
+public class ColumnBatch {
+  public static final int CAPACITY = 1024;
+
+  private DataType.Types[] types;
+  private int[] sizes;
+  private int[][] ints;
+  private float[][] floats;
+  private boolean[][] bools;
+  private int[][] codes;
+  private Dictionary dictionary;
+  private int numRows;
+  private int[] selection;
+  private int numSelected;
+
+  /**
+   * Creates an empty batch with columns for schema.
+   *
+   * @param schema the schema of the rows of this batch
+   * @param dictionary the dictionary to encode string values with
+   */
+  public ColumnBatch(Schema schema, Dictionary dictionary) {
+    List<DataType> fieldTypes = schema.getFieldTypes();
+    int numColumns = fieldTypes.size();
+
+    this.types = new DataType.Types[numColumns];
+    this.sizes = new int[numColumns];
+    this.ints = new int[numColumns][];
+    this.floats = new float[numColumns][];
+    this.bools = new boolean[numColumns][];
+    this.codes = new int[numColumns][];
+
+    for (int i = 0; i < numColumns; i++) {
+      DataType field = fieldTypes.get(i);
+      this.types[i] = field.type();
+      this.sizes[i] = field.getSize();
+      switch (this.types[i]) {
+        case INT:
+          this.ints[i] = new int[CAPACITY];
+          break;
+        case FLOAT:
+          this.floats[i] = new float[CAPACITY];
+          break;
+        case BOOL:
+          this.bools[i] = new boolean[CAPACITY];
+          break;
+        case STRING:
+        default:
+          this.codes[i] = new int[CAPACITY];
+          break;
+      }
+    }
+
+    this.dictionary = dictionary;
+    this.numRows = 0;
+    this.selection = new int[CAPACITY];
+    this.numSelected = 0;
+  }
+
+  private ColumnBatch() {
+  }
+
+  public boolean isFull() {
+    return this.numRows == CAPACITY;
+  }
+
+  public int getNumColumns() {
+    return this.types.length;
+  }
+
+  public DataType.Types getType(int column) {
+    return this.types[column];
+  }
+
+  public Dictionary getDictionary() {
+    return this.dictionary;
+  }
+
+  /**
+   * @return the selection vector; only the first getNumSelected() entries are in use
+   */
+  public int[] getSelection() {
+    return this.selection;
+  }
+
+  public int getNumSelected() {
+    return this.numSelected;
+  }
+
+  /**
+   * Shrinks the batch to the first numSelected entries of the selection vector.
+   *
+   * @param numSelected the number of rows still selected
+   */
+  public void setNumSelected(int numSelected) {
+    this.numSelected = numSelected;
+  }
+
+  public int[] getInts(int column) {
+    return this.ints[column];
+  }
+
+  public float[] getFloats(int column) {
+    return this.floats[column];
+  }
+
+  public boolean[] getBools(int column) {
+    return this.bools[column];
+  }
+
+  public int[] getCodes(int column) {
+    return this.codes[column];
+  }
+
+  public String getString(int column, int row) {
+    return this.dictionary.getString(this.codes[column][row]);
+  }
+
+  /**
+   * Boxes a single value of this batch.
+   *
+   * @param column the column of the value
+   * @param row the row of the value
+   * @return the value as a DataType
+   */
+  public DataType getValue(int column, int row) {
+    switch (this.types[column]) {
+      case INT:
+        return new IntDataType(this.ints[column][row]);
+      case FLOAT:
+        return new FloatDataType(this.floats[column][row]);
+      case BOOL:
+        return new BoolDataType(this.bools[column][row]);
+      case STRING:
+      default:
+        return new StringDataType(this.getString(column, row), this.sizes[column]);
+    }
+  }
+
+  /**
+   * Returns a value of this batch as a key that is equal for equal values, used to group rows.
+   *
+   * @param column the column of the value
+   * @param row the row of the value
+   * @return the value as an Integer, Float, Boolean or String
+   */
+  public Object getKey(int column, int row) {
+    switch (this.types[column]) {
+      case INT:
+        return this.ints[column][row];
+      case FLOAT:
+        return this.floats[column][row];
+      case BOOL:
+        return this.bools[column][row];
+      case STRING:
+      default:
+        return this.getString(column, row);
+    }
+  }
+
+  /**
+   * @param row the row to box
+   * @return the row as a Record
+   */
+  public Record getRecord(int row) {
+    List<DataType> values = new ArrayList<DataType>(this.types.length);
+    for (int i = 0; i < this.types.length; i++) {
+      values.add(this.getValue(i, row));
+    }
+    return new Record(values);
+  }
+
+  /**
+   * Appends a record to this batch and selects it. Fields of a LazyRecord are read straight from
+   * its page.
+   *
+   * @param record the record to append
+   */
+  public void addRecord(Record record) {
+    int row = this.numRows;
+    LazyRecord lazy = record instanceof LazyRecord ? (LazyRecord) record : null;
+
+    for (int i = 0; i < this.types.length; i++) {
+      switch (this.types[i]) {
+        case INT:
+          this.ints[i][row] = lazy != null ? lazy.readInt(i) : record.getValue(i).getInt();
+          break;
+        case FLOAT:
+          this.floats[i][row] = lazy != null ? lazy.readFloat(i) : record.getValue(i).getFloat();
+          break;
+        case BOOL:
+          this.bools[i][row] = lazy != null ? lazy.readBool(i) : record.getValue(i).getBool();
+          break;
+        case STRING:
+        default:
+          String s = lazy != null ? lazy.readString(i) : record.getValue(i).getString();
+          this.codes[i][row] = this.dictionary.encode(s);
+          break;
+      }
+    }
+
+    this.addRow();
+  }
+
+  /**
+   * Appends a row of another batch with the same columns to this batch and selects it.
+   *
+   * @param other the batch to copy the row from
+   * @param otherRow the row to copy
+   */
+  public void addRow(ColumnBatch other, int otherRow) {
+    int row = this.numRows;
+
+    for (int i = 0; i < this.types.length; i++) {
+      switch (this.types[i]) {
+        case INT:
+          this.ints[i][row] = other.ints[i][otherRow];
+          break;
+        case FLOAT:
+          this.floats[i][row] = other.floats[i][otherRow];
+          break;
+        case BOOL:
+          this.bools[i][row] = other.bools[i][otherRow];
+          break;
+        case STRING:
+        default:
+          int code = other.codes[i][otherRow];
+          if (other.dictionary != this.dictionary) {
+            code = this.dictionary.encode(other.dictionary.getString(code));
+          }
+          this.codes[i][row] = code;
+          break;
+      }
+    }
+
+    this.addRow();
+  }
+
+  /**
+   * Appends a row of boxed values to this batch and selects it.
+   *
+   * @param values the values of the row
+   */
+  public void addValues(List<DataType> values) {
+    this.addRecord(new Record(values));
+  }
+
+  private void addRow() {
+    this.selection[this.numSelected++] = this.numRows;
+    this.numRows++;
+  }
+
+  /**
+   * Returns a batch made of some of the columns of this batch. The new batch shares its column
+   * arrays and selection vector with this one, so no rows are copied.
+   *
+   * @param columns the indices of the columns to keep, in their new order
+   * @return the projected batch
+   */
+  public ColumnBatch project(List<Integer> columns) {
+    ColumnBatch projected = new ColumnBatch();
+    int numColumns = columns.size();
+
+    projected.types = new DataType.Types[numColumns];
+    projected.sizes = new int[numColumns];
+    projected.ints = new int[numColumns][];
+    projected.floats = new float[numColumns][];
+    projected.bools = new boolean[numColumns][];
+    projected.codes = new int[numColumns][];
+
+    for (int i = 0; i < numColumns; i++) {
+      int column = columns.get(i);
+      projected.types[i] = this.types[column];
+      projected.sizes[i] = this.sizes[column];
+      projected.ints[i] = this.ints[column];
+      projected.floats[i] = this.floats[column];
+      projected.bools[i] = this.bools[column];
+      projected.codes[i] = this.codes[column];
+    }
+
+    projected.dictionary = this.dictionary;
+    projected.numRows = this.numRows;
+    projected.selection = this.selection;
+    projected.numSelected = this.numSelected;
+    return projected;
+  }
+
+  /**
+   * Maps the strings of a batch to dense integer codes, so that string columns can be stored and
+   * compared for equality as ints.
+   */
+  public static class Dictionary {
+    private Map<String, Integer> codes;
+    private List<String> strings;
+
+    public Dictionary() {
+      this.codes = new HashMap<String, Integer>();
+      this.strings = new ArrayList<String>();
+    }
+
+    /**
+     * @param s the string to encode
+     * @return the code of s, adding it to the dictionary if it is new
+     */
+    public int encode(String s) {
+      Integer code = this.codes.get(s);
+      if (code == null) {
+        code = this.strings.size();
+        this.codes.put(s, code);
+        this.strings.add(s);
+      }
+      return code;
+    }
+
+    /**
+     * @param s the string to look up
+     * @return the code of s, or -1 if s is not in the dictionary
+     */
+    public int lookup(String s) {
+      Integer code = this.codes.get(s);
+      return code == null ? -1 : code;
+    }
+
+    public String getString(int code) {
+      return this.strings.get(code);
+    }
+  }
+}
@@ -0,0 +1,279 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.List;
+
+import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.table.LazyRecord;
+import edu.berkeley.cs186.database.table.Record;
+
+/**
+ * A WHERE predicate compiled once at plan time into an evaluator for the type of its column.
+ * Evaluators read their field straight from the page when given a LazyRecord, so testing a
+ * record does not decode it, and work on the column arrays of a ColumnBatch in batch mode.
+ *
+ * A comparison is compiled into a mask of the comparison results it accepts, where bit 0 is
+ * less than, bit 1 is equal and bit 2 is greater than, so every evaluator tests a row with one
+ * comparison and no switch on the operator.
+ */
+abstract class CompiledPredicate {
+  private static final int LESS = 0b001;
+  private static final int EQUAL = 0b010;
+  private static final int GREATER = 0b100;
+
+  /**
+   * @param record the record to test
+   * @return true if record satisfies the predicate
+   */
+  abstract boolean test(Record record);
+
+  /**
+   * Shrinks the selection vector of batch to the rows that satisfy the predicate.
+   *
+   * @param batch the batch to filter
+   */
+  abstract void filter(ColumnBatch batch);
+
+  /**
+   * Compiles the predicate `column predicate value`.
+   *
+   * @param columnIndex the index of the column in the records that will be tested
+   * @param columnType the type of the column
+   * @param predicate the comparator
+   * @param value the value to compare against
+   * @return the compiled predicate
+   * @throws QueryPlanException if value cannot be compared with the column
+   */
+  static CompiledPredicate compile(int columnIndex,
+                                   DataType columnType,
+                                   QueryPlan.PredicateOperator predicate,
+                                   DataType value) throws QueryPlanException {
+    if (columnType.type() != value.type()) {
+      throw new QueryPlanException("Cannot compare a " + columnType.type() + " column with a "
+          + value.type() + " value.");
+    }
+
+    int accept = acceptMask(predicate);
+    switch (columnType.type()) {
+      case INT:
+        return new IntPredicate(columnIndex, accept, value.getInt());
+      case FLOAT:
+        return new FloatPredicate(columnIndex, accept, value.getFloat());
+      case BOOL:
+        return new BoolPredicate(columnIndex, accept, value.getBool());
+      case STRING:
+      default:
+        return new StringPredicate(columnIndex, accept, value.getString());
+    }
+  }
+
+  /**
+   * @param predicates the predicates to combine
+   * @return a predicate that is satisfied when all of predicates are
+   */
+  static CompiledPredicate and(List<CompiledPredicate> predicates) {
+    if (predicates.size() == 1) {
+      return predicates.get(0);
+    }
+    return new Conjunction(predicates.toArray(new CompiledPredicate[predicates.size()]));
+  }
+
+  private static int acceptMask(QueryPlan.PredicateOperator predicate) {
+    switch (predicate) {
+      case EQUALS:
+        return EQUAL;
+      case NOT_EQUALS:
+        return LESS | GREATER;
+      case LESS_THAN:
+        return LESS;
+      case LESS_THAN_EQUALS:
+        return LESS | EQUAL;
+      case GREATER_THAN:
+        return GREATER;
+      case GREATER_THAN_EQUALS:
+      default:
+        return GREATER | EQUAL;
+    }
+  }
+
+  /**
+   * @param accept the mask of accepted comparison results
+   * @param cmp the sign of a comparison, -1, 0 or 1
+   * @return true if the mask accepts cmp
+   */
+  private static boolean accepts(int accept, int cmp) {
+    return (accept & (1 << (cmp + 1))) != 0;
+  }
+
+  private static class IntPredicate extends CompiledPredicate {
+    private int columnIndex;
+    private int accept;
+    private int value;
+
+    IntPredicate(int columnIndex, int accept, int value) {
+      this.columnIndex = columnIndex;
+      this.accept = accept;
+      this.value = value;
+    }
+
+    boolean test(Record record) {
+      int field = record instanceof LazyRecord
+          ? ((LazyRecord) record).readInt(this.columnIndex)
+          : record.getValue(this.columnIndex).getInt();
+      return accepts(this.accept, Integer.compare(field, this.value));
+    }
+
+    void filter(ColumnBatch batch) {
+      int[] column = batch.getInts(this.columnIndex);
+      int[] selection = batch.getSelection();
+      int numSelected = batch.getNumSelected();
+      int kept = 0;
+      for (int i = 0; i < numSelected; i++) {
+        int row = selection[i];
+        if (accepts(this.accept, Integer.compare(column[row], this.value))) {
+          selection[kept++] = row;
+        }
+      }
+      batch.setNumSelected(kept);
+    }
+  }
+
+  private static class FloatPredicate extends CompiledPredicate {
+    private int columnIndex;
+    private int accept;
+    private float value;
+
+    FloatPredicate(int columnIndex, int accept, float value) {
+      this.columnIndex = columnIndex;
+      this.accept = accept;
+      this.value = value;
+    }
+
+    boolean test(Record record) {
+      float field = record instanceof LazyRecord
+          ? ((LazyRecord) record).readFloat(this.columnIndex)
+          : record.getValue(this.columnIndex).getFloat();
+      return accepts(this.accept, Integer.signum(Float.compare(field, this.value)));
+    }
+
+    void filter(ColumnBatch batch) {
+      float[] column = batch.getFloats(this.columnIndex);
+      int[] selection = batch.getSelection();
+      int numSelected = batch.getNumSelected();
+      int kept = 0;
+      for (int i = 0; i < numSelected; i++) {
+        int row = selection[i];
+        if (accepts(this.accept, Integer.signum(Float.compare(column[row], this.value)))) {
+          selection[kept++] = row;
+        }
+      }
+      batch.setNumSelected(kept);
+    }
+  }
+
+  private static class BoolPredicate extends CompiledPredicate {
+    private int columnIndex;
+    private int accept;
+    private boolean value;
+
+    BoolPredicate(int columnIndex, int accept, boolean value) {
+      this.columnIndex = columnIndex;
+      this.accept = accept;
+      this.value = value;
+    }
+
+    boolean test(Record record) {
+      boolean field = record instanceof LazyRecord
+          ? ((LazyRecord) record).readBool(this.columnIndex)
+          : record.getValue(this.columnIndex).getBool();
+      return accepts(this.accept, Boolean.compare(field, this.value));
+    }
+
+    void filter(ColumnBatch batch) {
+      boolean[] column = batch.getBools(this.columnIndex);
+      int[] selection = batch.getSelection();
+      int numSelected = batch.getNumSelected();
+      int kept = 0;
+      for (int i = 0; i < numSelected; i++) {
+        int row = selection[i];
+        if (accepts(this.accept, Boolean.compare(column[row], this.value))) {
+          selection[kept++] = row;
+        }
+      }
+      batch.setNumSelected(kept);
+    }
+  }
+
+  private static class StringPredicate extends CompiledPredicate {
+    private int columnIndex;
+    private int accept;
+    private String value;
+
+    StringPredicate(int columnIndex, int accept, String value) {
+      this.columnIndex = columnIndex;
+      this.accept = accept;
+      this.value = value;
+    }
+
+    boolean test(Record record) {
+      String field = record instanceof LazyRecord
+          ? ((LazyRecord) record).readString(this.columnIndex)
+          : record.getValue(this.columnIndex).getString();
+      return accepts(this.accept, Integer.signum(field.compareTo(this.value)));
+    }
+
+    void filter(ColumnBatch batch) {
+      int[] column = batch.getCodes(this.columnIndex);
+      int[] selection = batch.getSelection();
+      int numSelected = batch.getNumSelected();
+      ColumnBatch.Dictionary dictionary = batch.getDictionary();
+      int kept = 0;
+
+      if (this.accept == EQUAL || this.accept == (LESS | GREATER)) {
+        // equality only needs the code of the value, which is -1 if no row has it
+        int code = dictionary.lookup(this.value);
+        for (int i = 0; i < numSelected; i++) {
+          int row = selection[i];
+          if ((this.accept & (column[row] == code ? EQUAL : LESS | GREATER)) != 0) {
+            selection[kept++] = row;
+          }
+        }
+      } else {
+        for (int i = 0; i < numSelected; i++) {
+          int row = selection[i];
+          int cmp = Integer.signum(dictionary.getString(column[row]).compareTo(this.value));
+          if (accepts(this.accept, cmp)) {
+            selection[kept++] = row;
+          }
+        }
+      }
+      batch.setNumSelected(kept);
+    }
+  }
+
+  private static class Conjunction extends CompiledPredicate {
+    private CompiledPredicate[] predicates;
+
+    Conjunction(CompiledPredicate[] predicates) {
+      this.predicates = predicates;
+    }
+
+    boolean test(Record record) {
+      for (CompiledPredicate predicate : this.predicates) {
+        if (!predicate.test(record)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void filter(ColumnBatch batch) {
+      // each predicate only looks at the rows the previous ones kept
+      for (CompiledPredicate predicate : this.predicates) {
+        if (batch.getNumSelected() == 0) {
+          return;
+        }
+        predicate.filter(batch);
+      }
+    }
+  }
+}
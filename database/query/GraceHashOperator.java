@@ -5,27 +5,58 @@ import java.util.*;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 
+/**
+ * Grace hash join. Both inputs are hashed into numBuffers - 1 partitions, and each left
+ * partition is loaded into an in-memory hash table that the matching right partition probes.
+ *
+ * A left partition that does not fit in numBuffers - 2 pages is partitioned again with a
+ * different hash seed, up to MAX_PARTITION_DEPTH levels. A partition that still does not fit,
+ * or that partitioning fails to split because its records share a few heavy hitter keys, is
+ * joined with a block nested loop: the left partition is loaded a memory-sized block at a time
+ * and the right partition is scanned once per block.
+ *
+ * In hybrid mode the records of the first left partition are kept in the in-memory hash table
+ * while the left input is partitioned, instead of being written out. The right input is then
+ * partitioned as it is read, and its records for the first partition probe the hash table
+ * straight away, so neither side of that partition is written or read again. If the first left
+ * partition turns out not to fit in memory it is written out like the others.
+ */
 public class GraceHashOperator extends JoinOperator {
+    private static final int MAX_PARTITION_DEPTH = 4;
 
     private int numBuffers;
+    private int numPartitionTables;
+    private boolean hybrid;
 
     public GraceHashOperator(QueryOperator leftSource,
                              QueryOperator rightSource,
                              String leftColumnName,
                              String rightColumnName,
                              Database.Transaction transaction) throws QueryPlanException, DatabaseException {
+        this(leftSource, rightSource, leftColumnName, rightColumnName, transaction, false);
+    }
+
+    public GraceHashOperator(QueryOperator leftSource,
+                             QueryOperator rightSource,
+                             String leftColumnName,
+                             String rightColumnName,
+                             Database.Transaction transaction,
+                             boolean hybrid) throws QueryPlanException, DatabaseException {
         super(leftSource,
                 rightSource,
                 leftColumnName,
                 rightColumnName,
                 transaction,
-                JoinType.GRACEHASH);
+                hybrid ? JoinType.HYBRIDHASH : JoinType.GRACEHASH);
 
+        this.hybrid = hybrid;
         this.numBuffers = transaction.getNumMemoryPages();
+        this.numPartitionTables = 0;
         this.stats = this.estimateStats();
         this.cost = this.estimateIOCost();
     }
@@ -34,78 +65,264 @@ public class GraceHashOperator extends JoinOperator {
         return new GraceHashIterator();
     }
 
+    /**
+     * Each level of partitioning reads and writes both inputs, and the join reads the partitions
+     * once more. One level is enough unless the left partitions are still larger than
+     * numBuffers - 2 pages, assuming the keys spread evenly. In hybrid mode the first partition
+     * is never written or read back if it fits in memory, which saves 2 * (L + R) / numPartitions.
+     */
     public int estimateIOCost() throws QueryPlanException {
         TableStats leftStats = this.getLeftSource().getStats();
         TableStats rightStats = this.getRightSource().getStats();
         int rightPages = rightStats.getNumPages();
         int leftPages = leftStats.getNumPages();
-        return 3 * (rightPages + leftPages);
+
+        int numPartitions = this.getNumPartitions();
+        int levels = 1;
+        double partitionPages = (double) leftPages / numPartitions;
+        while (partitionPages > Math.max(1, this.numBuffers - 2) && levels < MAX_PARTITION_DEPTH) {
+            partitionPages /= numPartitions;
+            levels++;
+        }
+        int cost = (2 * levels + 1) * (rightPages + leftPages);
+        if (this.hybrid && (double) leftPages / numPartitions <= Math.max(1, this.numBuffers - 2)) {
+            cost -= 2 * (rightPages + leftPages) / numPartitions;
+        }
+        return cost;
+    }
+
+    private int getNumPartitions() {
+        return Math.max(2, this.numBuffers - 1);
+    }
+
+    /**
+     * @return the number of left records that fit in the memory pages left over from the input
+     * and output pages
+     */
+    private int getMaxRecordsInMemory() throws QueryPlanException {
+        int entrySize = this.getLeftSource().getOutputSchema().getEntrySize();
+        return Math.max(1, Math.max(1, this.numBuffers - 2) * Page.pageSize / entrySize);
+    }
+
+    /**
+     * A pair of matching left and right partitions.
+     */
+    private static class Partition {
+        private String leftTableName;
+        private String rightTableName;
+        private int numLeftRecords;
+        private int numRightRecords;
+        private int depth;
+
+        Partition(String leftTableName, String rightTableName, int depth) {
+            this.leftTableName = leftTableName;
+            this.rightTableName = rightTableName;
+            this.numLeftRecords = 0;
+            this.numRightRecords = 0;
+            this.depth = depth;
+        }
     }
 
     /**
      * An implementation of Iterator that provides an iterator interface for this operator.
      */
     private class GraceHashIterator implements Iterator<Record> {
+        private Deque<Partition> partitions;
+        private Partition currentPartition;
         private Iterator<Record> leftIterator;
         private Iterator<Record> rightIterator;
         private Record rightRecord;
         private Record nextRecord;
-        private String[] leftPartitions;
-        private String[] rightPartitions;
-        private int currentPartition;
         private Map<DataType, ArrayList<Record>> inMemoryHashTable;
+        private ArrayList<Record> leftMatches;
+        private int arrayListIndex;
         private int leftColumnIndex;
         private int rightColumnIndex;
-        private int arrayListIndex;
-
+        private DataType.Types keyType;
+        private int maxRecordsInMemory;
+        // in hybrid mode, the first level of partitions while the right input is partitioned
+        private Partition[] streamedPartitions;
+        private int numStreamedLeftRecords;
+        private boolean resident;
 
         public GraceHashIterator() throws QueryPlanException, DatabaseException {
-            this.leftIterator = getLeftSource().iterator();
-            this.rightIterator = getRightSource().iterator();
-            this.leftPartitions = new String[numBuffers - 1];
-            this.rightPartitions = new String[numBuffers - 1];
-            String leftTableName;
-            String rightTableName;
-            for (int i = 0; i < numBuffers - 1; i++) {
-                leftTableName = "Temp HashJoin Left Partition " + Integer.toString(i);
-                rightTableName = "Temp HashJoin Right Partition " + Integer.toString(i);
-                GraceHashOperator.this.createTempTable(getLeftSource().getOutputSchema(), leftTableName);
-                GraceHashOperator.this.createTempTable(getRightSource().getOutputSchema(), rightTableName);
-                this.leftPartitions[i] = leftTableName;
-                this.rightPartitions[i] = rightTableName;
-            }
             this.leftColumnIndex = GraceHashOperator.this.getLeftColumnIndex();
-            while (this.leftIterator.hasNext()) {
-                Record curr_record = leftIterator.next();
-                DataType join_key_val = curr_record.getValues().get(leftColumnIndex);
-                int hashed_val = join_key_val.hashCode() % (numBuffers - 1);
-                GraceHashOperator.this.addRecord(this.leftPartitions[hashed_val], curr_record.getValues());
+            this.rightColumnIndex = GraceHashOperator.this.getRightColumnIndex();
+            this.keyType = getLeftSource().getOutputSchema().getFieldTypes().get(this.leftColumnIndex).type();
+            this.maxRecordsInMemory = GraceHashOperator.this.getMaxRecordsInMemory();
+
+            this.partitions = new ArrayDeque<Partition>();
+            this.currentPartition = null;
+            this.leftIterator = null;
+            this.rightIterator = null;
+            this.rightRecord = null;
+            this.nextRecord = null;
+            this.inMemoryHashTable = new HashMap<>();
+            this.leftMatches = null;
+            this.arrayListIndex = 0;
+            this.streamedPartitions = null;
+
+            if (GraceHashOperator.this.hybrid) {
+                this.streamedPartitions = this.createPartitions(0);
+                this.numStreamedLeftRecords = this.partitionLeft(getLeftSource().iterator(),
+                        this.streamedPartitions, 0, true);
+                this.rightIterator = getRightSource().iterator();
+            } else {
+                this.partition(getLeftSource().iterator(), getRightSource().iterator(), 0);
             }
+        }
 
-            this.rightColumnIndex = GraceHashOperator.this.getRightColumnIndex();
-            while (this.rightIterator.hasNext()) {
-                Record curr_record = rightIterator.next();
-                DataType join_key_val = curr_record.getValues().get(rightColumnIndex);
-                int hashed_val = join_key_val.hashCode() % (numBuffers - 1);
-                GraceHashOperator.this.addRecord(this.rightPartitions[hashed_val], curr_record.getValues());
+        /**
+         * Hashes leftRecords and rightRecords into new partitions at depth and queues them.
+         * Records are hashed with a seed that depends on depth, so a partition is split
+         * differently each time it is partitioned again.
+         */
+        private void partition(Iterator<Record> leftRecords,
+                               Iterator<Record> rightRecords,
+                               int depth) throws QueryPlanException, DatabaseException {
+            Partition[] children = this.createPartitions(depth);
+            int numLeftRecords = this.partitionLeft(leftRecords, children, depth, false);
+            while (rightRecords.hasNext()) {
+                this.addRightRecord(rightRecords.next(), children, depth);
+            }
+            this.queuePartitions(children, numLeftRecords, depth);
+        }
+
+        private Partition[] createPartitions(int depth) throws QueryPlanException, DatabaseException {
+            Partition[] children = new Partition[GraceHashOperator.this.getNumPartitions()];
+            for (int i = 0; i < children.length; i++) {
+                String tableName = "Temp HashJoin " + GraceHashOperator.this.getRightColumnName()
+                        + " Partition " + GraceHashOperator.this.numPartitionTables++;
+                children[i] = new Partition(tableName + " Left", tableName + " Right", depth);
+                GraceHashOperator.this.createTempTable(getLeftSource().getOutputSchema(), children[i].leftTableName);
+                GraceHashOperator.this.createTempTable(getRightSource().getOutputSchema(), children[i].rightTableName);
+            }
+            return children;
+        }
+
+        /**
+         * Hashes leftRecords into children. If keepResident is true, the records of the first
+         * partition are added to the in-memory hash table instead for as long as they fit.
+         *
+         * @return the number of records in leftRecords
+         */
+        private int partitionLeft(Iterator<Record> leftRecords,
+                                  Partition[] children,
+                                  int depth,
+                                  boolean keepResident) throws DatabaseException {
+            this.resident = keepResident;
+            int numLeftRecords = 0;
+            int numResidentRecords = 0;
+            while (leftRecords.hasNext()) {
+                Record record = leftRecords.next();
+                numLeftRecords++;
+                int i = GroupTable.hash(record, this.leftColumnIndex, this.keyType, depth) % children.length;
+                if (i == 0 && this.resident) {
+                    if (numResidentRecords < this.maxRecordsInMemory) {
+                        this.addToHashTable(new Record(record.getValues()));
+                        numResidentRecords++;
+                        continue;
+                    }
+                    this.spillResident(children[0]);
+                }
+                GraceHashOperator.this.addRecord(children[i].leftTableName, record.getValues());
+                children[i].numLeftRecords++;
+            }
+            return numLeftRecords;
+        }
+
+        /**
+         * Writes the in-memory hash table out to the left side of partition, once it has
+         * outgrown memory.
+         */
+        private void spillResident(Partition partition) throws DatabaseException {
+            for (ArrayList<Record> records : this.inMemoryHashTable.values()) {
+                for (Record record : records) {
+                    GraceHashOperator.this.addRecord(partition.leftTableName, record.getValues());
+                    partition.numLeftRecords++;
+                }
             }
-            this.rightIterator = GraceHashOperator.this.getTableIterator(this.rightPartitions[0]);
-            this.leftIterator = GraceHashOperator.this.getTableIterator(this.leftPartitions[0]);
             this.inMemoryHashTable = new HashMap<>();
-            while (this.leftIterator.hasNext()) {
-                Record leftRecord = this.leftIterator.next();
-                ArrayList<Record> leftRecordList = this.inMemoryHashTable.get(leftRecord.getValues().get(this.leftColumnIndex));
-                if (leftRecordList == null) {
-                    leftRecordList = new ArrayList<>();
+            this.resident = false;
+        }
+
+        /**
+         * Hashes record into the right side of one of children.
+         *
+         * @return the index of the partition of record
+         */
+        private int addRightRecord(Record record, Partition[] children, int depth) throws DatabaseException {
+            int i = GroupTable.hash(record, this.rightColumnIndex, this.keyType, depth) % children.length;
+            if (i != 0 || !this.resident) {
+                GraceHashOperator.this.addRecord(children[i].rightTableName, record.getValues());
+                children[i].numRightRecords++;
+            }
+            return i;
+        }
+
+        private void queuePartitions(Partition[] children, int numLeftRecords, int depth) {
+            for (Partition child : children) {
+                if (depth > 0 && child.numLeftRecords == numLeftRecords) {
+                    // partitioning did not split the left records, so their keys are heavy
+                    // hitters that another level will not split either
+                    child.depth = MAX_PARTITION_DEPTH;
                 }
-                leftRecordList.add(leftRecord);
-                this.inMemoryHashTable.put(leftRecord.getValues().get(this.leftColumnIndex), leftRecordList);
+                this.partitions.push(child);
             }
-            this.rightRecord = null;
-            this.nextRecord = null;
-            this.currentPartition = 0;
-            this.arrayListIndex = 0;
+        }
+
+        /**
+         * Starts joining partition, or partitions it again if its left side does not fit in
+         * memory and it may still be split.
+         */
+        private void startPartition(Partition partition) throws QueryPlanException, DatabaseException {
+            if (partition.numLeftRecords == 0 || partition.numRightRecords == 0) {
+                this.deletePartition(partition);
+                return;
+            }
+
+            if (partition.numLeftRecords > this.maxRecordsInMemory && partition.depth < MAX_PARTITION_DEPTH) {
+                this.partition(GraceHashOperator.this.getTableIterator(partition.leftTableName),
+                        GraceHashOperator.this.getTableIterator(partition.rightTableName),
+                        partition.depth + 1);
+                this.deletePartition(partition);
+                return;
+            }
+
+            this.currentPartition = partition;
+            this.leftIterator = GraceHashOperator.this.getTableIterator(partition.leftTableName);
+            this.loadBlock();
+        }
 
+        /**
+         * Loads the next block of the left side of the current partition into the in-memory
+         * hash table, and starts a scan of its right side. All of the left side is loaded at
+         * once unless the partition could not be split to fit in memory.
+         */
+        private void loadBlock() throws DatabaseException {
+            this.inMemoryHashTable = new HashMap<>();
+            int numRecords = 0;
+            while (numRecords < this.maxRecordsInMemory && this.leftIterator.hasNext()) {
+                // copied so that the hash table does not refer to the pages of the partition
+                this.addToHashTable(new Record(this.leftIterator.next().getValues()));
+                numRecords++;
+            }
+            this.rightIterator = GraceHashOperator.this.getTableIterator(this.currentPartition.rightTableName);
+        }
+
+        private void addToHashTable(Record leftRecord) {
+            DataType leftValue = leftRecord.getValue(this.leftColumnIndex);
+            ArrayList<Record> leftRecordList = this.inMemoryHashTable.get(leftValue);
+            if (leftRecordList == null) {
+                leftRecordList = new ArrayList<>();
+                this.inMemoryHashTable.put(leftValue, leftRecordList);
+            }
+            leftRecordList.add(leftRecord);
+        }
+
+        private void deletePartition(Partition partition) {
+            GraceHashOperator.this.getTransaction().deleteTempTable(partition.leftTableName);
+            GraceHashOperator.this.getTransaction().deleteTempTable(partition.rightTableName);
         }
 
         /**
@@ -117,55 +334,64 @@ public class GraceHashOperator extends JoinOperator {
             if (this.nextRecord != null) {
                 return true;
             }
-            while (true) {
-                if (currentPartition == numBuffers - 1) {
-                    return false;
-                }
-                // if right record is null, we need to get next one in current partition, if no more then we increment partition
-                else if (this.rightRecord == null) {
-                    if (this.rightIterator.hasNext()) {
-                        this.rightRecord = this.rightIterator.next();
-                    } else if (this.currentPartition < numBuffers - 2) { //we go here once we reach the end of a partition
-                        this.currentPartition++;
-                        this.inMemoryHashTable = new HashMap<>();
-                        try {
-                            this.leftIterator = GraceHashOperator.this.getTableIterator(this.leftPartitions[this.currentPartition]);
-                            this.rightIterator = GraceHashOperator.this.getTableIterator(this.rightPartitions[this.currentPartition]);
-                        } catch (DatabaseException e) {
-                            return false;
-                        }
-                        while (this.leftIterator.hasNext()) {
-                            Record leftRecord = this.leftIterator.next();
-                            ArrayList<Record> leftRecordList = this.inMemoryHashTable.get(leftRecord.getValues().get(this.leftColumnIndex));
-                            if (leftRecordList == null) {
-                                leftRecordList = new ArrayList<>();
+            try {
+                while (true) {
+                    // join the current right record with the left records of its key
+                    if (this.leftMatches != null && this.arrayListIndex < this.leftMatches.size()) {
+                        Record leftRecord = this.leftMatches.get(this.arrayListIndex);
+                        this.arrayListIndex++;
+                        List<DataType> leftValues = new ArrayList<DataType>(leftRecord.getValues());
+                        leftValues.addAll(this.rightRecord.getValues());
+                        this.nextRecord = new Record(leftValues);
+                        return true;
+                    }
+
+                    // probe with the next right record
+                    if (this.rightIterator != null && this.rightIterator.hasNext()) {
+                        Record record = this.rightIterator.next();
+                        // in hybrid mode only the records of the resident partition are probed
+                        // as the right input is read, and the rest are partitioned
+                        if (this.streamedPartitions != null) {
+                            int i = this.addRightRecord(record, this.streamedPartitions, 0);
+                            if (i != 0 || !this.resident) {
+                                continue;
                             }
-                            leftRecordList.add(leftRecord);
-                            this.inMemoryHashTable.put(leftRecord.getValues().get(this.leftColumnIndex), leftRecordList);
                         }
-                    } else {
-                        this.currentPartition++;
+                        this.rightRecord = record;
+                        this.leftMatches = this.inMemoryHashTable.get(this.rightRecord.getValue(this.rightColumnIndex));
+                        this.arrayListIndex = 0;
+                        continue;
                     }
-                }
-                // probe with right record
-                else {
-                    DataType rightValue = this.rightRecord.getValues().get(this.rightColumnIndex);
-                    if (this.inMemoryHashTable.containsKey(rightValue)) {
-                        ArrayList<Record> leftRecords = this.inMemoryHashTable.get(rightValue);
-                        if (this.arrayListIndex < leftRecords.size()) {
-                            Record leftRecord = leftRecords.get(this.arrayListIndex);
-                            this.arrayListIndex++;
-                            List<DataType> leftValues = new ArrayList<DataType>(leftRecord.getValues());
-                            List<DataType> rightValues = new ArrayList<DataType>(this.rightRecord.getValues());
-                            leftValues.addAll(rightValues);
-                            this.nextRecord = new Record(leftValues);
-                            return true;
-                        } else {
-                            this.rightRecord = null;
-                            this.arrayListIndex = 0;
-                        }
+                    this.leftMatches = null;
+
+                    if (this.streamedPartitions != null) {
+                        this.queuePartitions(this.streamedPartitions, this.numStreamedLeftRecords, 0);
+                        this.streamedPartitions = null;
+                        this.rightIterator = null;
+                        this.inMemoryHashTable = new HashMap<>();
+                        continue;
+                    }
+
+                    // the right side is done with this block, so load the next one if any
+                    if (this.currentPartition != null && this.leftIterator.hasNext()) {
+                        this.loadBlock();
+                        continue;
+                    }
+
+                    if (this.currentPartition != null) {
+                        this.deletePartition(this.currentPartition);
+                        this.currentPartition = null;
+                        this.rightIterator = null;
+                        this.inMemoryHashTable = new HashMap<>();
+                    }
+
+                    if (this.partitions.isEmpty()) {
+                        return false;
                     }
+                    this.startPartition(this.partitions.pop());
                 }
+            } catch (DatabaseException | QueryPlanException e) {
+                return false;
             }
         }
 
@@ -0,0 +1,338 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.datatypes.FloatDataType;
+import edu.berkeley.cs186.database.datatypes.IntDataType;
+import edu.berkeley.cs186.database.table.LazyRecord;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * Groups the records of its source by a column and computes count, sum and average aggregates
+ * for each group as the records are read, keeping only a running count and sums per group
+ * instead of the records themselves. Yields one record per group, made of the group by column
+ * if it was selected followed by the aggregates, in the same layout as a SelectOperator with
+ * aggregates over a GroupByOperator. Like that SelectOperator, an empty input still yields one
+ * row of zero aggregates when nothing but aggregates is selected.
+ */
+public class GroupAggregateOperator extends QueryOperator {
+  private String groupByColumn;
+  private int groupByColumnIndex;
+  private List<String> columns;
+  private boolean hasCount;
+  private String sumColumn;
+  private int sumColumnIndex;
+  private boolean sumIsFloat;
+  private String averageColumn;
+  private int averageColumnIndex;
+  private boolean averageIsFloat;
+
+  /**
+   * Creates a new GroupAggregateOperator that groups source by groupByColumn.
+   *
+   * @param source the source operator of this operator
+   * @param groupByColumn the column to group on
+   * @param columns the selected columns, which may only be groupByColumn
+   * @param count whether to compute count(*)
+   * @param averageColumn the column to average, or null
+   * @param sumColumn the column to sum, or null
+   * @throws QueryPlanException
+   */
+  public GroupAggregateOperator(QueryOperator source,
+                                String groupByColumn,
+                                List<String> columns,
+                                boolean count,
+                                String averageColumn,
+                                String sumColumn) throws QueryPlanException {
+    super(OperatorType.GROUPBY);
+
+    this.groupByColumn = groupByColumn;
+    this.columns = new ArrayList<String>(columns);
+    this.hasCount = count;
+    this.averageColumn = averageColumn;
+    this.sumColumn = sumColumn;
+    this.sumColumnIndex = -1;
+    this.averageColumnIndex = -1;
+
+    this.setSource(source);
+
+    this.stats = this.estimateStats();
+    this.cost = this.estimateIOCost();
+  }
+
+  protected Schema computeSchema() throws QueryPlanException {
+    Schema sourceSchema = this.getSource().getOutputSchema();
+    List<String> sourceColumnNames = sourceSchema.getFieldNames();
+    List<DataType> sourceColumnTypes = sourceSchema.getFieldTypes();
+
+    this.groupByColumn = this.checkSchemaForColumn(sourceSchema, this.groupByColumn);
+    this.groupByColumnIndex = sourceColumnNames.indexOf(this.groupByColumn);
+
+    List<String> names = new ArrayList<String>();
+    List<DataType> types = new ArrayList<DataType>();
+    for (String column : this.columns) {
+      if (!this.checkSchemaForColumn(sourceSchema, column).equals(this.groupByColumn)) {
+        throw new QueryPlanException("Can only select columns specified in the GROUP BY clause.");
+      }
+      names.add(column);
+      types.add(sourceColumnTypes.get(this.groupByColumnIndex));
+    }
+
+    if (this.hasCount) {
+      names.add("countAgg");
+      types.add(new IntDataType());
+    }
+
+    if (this.sumColumn != null) {
+      this.sumColumn = this.checkSchemaForColumn(sourceSchema, this.sumColumn);
+      this.sumColumnIndex = sourceColumnNames.indexOf(this.sumColumn);
+      this.sumIsFloat = this.checkNumeric(sourceColumnTypes.get(this.sumColumnIndex), this.sumColumn);
+
+      names.add("sumAgg");
+      types.add(this.sumIsFloat ? new FloatDataType() : new IntDataType());
+    }
+
+    if (this.averageColumn != null) {
+      this.averageColumn = this.checkSchemaForColumn(sourceSchema, this.averageColumn);
+      this.averageColumnIndex = sourceColumnNames.indexOf(this.averageColumn);
+      this.averageIsFloat = this.checkNumeric(sourceColumnTypes.get(this.averageColumnIndex),
+          this.averageColumn);
+
+      names.add("averageAgg");
+      types.add(new FloatDataType());
+    }
+
+    return new Schema(names, types);
+  }
+
+  /**
+   * @return true if type is a float column, false if it is an integer column
+   * @throws QueryPlanException if type is neither
+   */
+  private boolean checkNumeric(DataType type, String column) throws QueryPlanException {
+    if (type instanceof FloatDataType) {
+      return true;
+    }
+    if (!(type instanceof IntDataType)) {
+      throw new QueryPlanException("Cannot aggregate over a non-numeric column: " + column + ".");
+    }
+    return false;
+  }
+
+  public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
+    return this.aggregate(this.getSource().execute());
+  }
+
+  public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+    return this.aggregate(this.getSource().iterator());
+  }
+
+  private Iterator<Record> aggregate(Iterator<Record> sourceIterator) throws QueryPlanException {
+    Schema sourceSchema = this.getSource().getOutputSchema();
+    DataType.Types keyType = sourceSchema.getFieldTypes().get(this.groupByColumnIndex).type();
+    GroupTable table = new GroupTable(this.groupByColumnIndex, keyType);
+    Accumulators accumulators = new Accumulators();
+
+    while (sourceIterator.hasNext()) {
+      Record record = sourceIterator.next();
+      int group = table.findGroup(record);
+      if (group == accumulators.numGroups) {
+        accumulators.addGroup(table.getGroupKey(group));
+      }
+
+      accumulators.counts[group]++;
+      if (this.sumColumnIndex != -1) {
+        accumulators.sums[group] += this.readNumber(record, this.sumColumnIndex, this.sumIsFloat);
+      }
+      if (this.averageColumnIndex != -1) {
+        accumulators.averageSums[group] += this.readNumber(record, this.averageColumnIndex,
+            this.averageIsFloat);
+      }
+    }
+
+    accumulators.addEmptyGroup();
+    List<Record> output = new ArrayList<Record>(accumulators.numGroups);
+    for (int group = 0; group < accumulators.numGroups; group++) {
+      output.add(new Record(accumulators.getValues(group)));
+    }
+    return output.iterator();
+  }
+
+  private double readNumber(Record record, int column, boolean isFloat) {
+    if (record instanceof LazyRecord) {
+      LazyRecord lazy = (LazyRecord) record;
+      return isFloat ? lazy.readFloat(column) : lazy.readInt(column);
+    }
+    DataType value = record.getValue(column);
+    return isFloat ? value.getFloat() : value.getInt();
+  }
+
+  public boolean supportsBatches() {
+    return this.source.supportsBatches();
+  }
+
+  /**
+   * Aggregates the batches of the source operator straight from their column arrays and yields
+   * the groups as batches.
+   *
+   * @return an iterator of ColumnBatches
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public Iterator<ColumnBatch> batchIterator() throws QueryPlanException, DatabaseException {
+    Iterator<ColumnBatch> sourceIterator = this.getSource().batchIterator();
+    Map<Object, Integer> groups = new HashMap<Object, Integer>();
+    Accumulators accumulators = new Accumulators();
+
+    while (sourceIterator.hasNext()) {
+      ColumnBatch batch = sourceIterator.next();
+      int[] selection = batch.getSelection();
+      int numSelected = batch.getNumSelected();
+
+      // map each selected row to its group once, then run each aggregate over the rows
+      int[] rowGroups = new int[numSelected];
+      for (int i = 0; i < numSelected; i++) {
+        int row = selection[i];
+        Object key = batch.getKey(this.groupByColumnIndex, row);
+        Integer group = groups.get(key);
+        if (group == null) {
+          group = accumulators.numGroups;
+          groups.put(key, group);
+          accumulators.addGroup(batch.getValue(this.groupByColumnIndex, row));
+        }
+        rowGroups[i] = group;
+        accumulators.counts[group]++;
+      }
+
+      if (this.sumColumnIndex != -1) {
+        addColumn(batch, this.sumColumnIndex, rowGroups, accumulators.sums);
+      }
+      if (this.averageColumnIndex != -1) {
+        addColumn(batch, this.averageColumnIndex, rowGroups, accumulators.averageSums);
+      }
+    }
+
+    accumulators.addEmptyGroup();
+    List<ColumnBatch> output = new ArrayList<ColumnBatch>();
+    ColumnBatch.Dictionary dictionary = new ColumnBatch.Dictionary();
+    for (int group = 0; group < accumulators.numGroups; group++) {
+      if (output.isEmpty() || output.get(output.size() - 1).isFull()) {
+        output.add(new ColumnBatch(this.getOutputSchema(), dictionary));
+      }
+      output.get(output.size() - 1).addValues(accumulators.getValues(group));
+    }
+    return output.iterator();
+  }
+
+  private static void addColumn(ColumnBatch batch, int column, int[] rowGroups, double[] sums) {
+    int[] selection = batch.getSelection();
+    if (batch.getType(column) == DataType.Types.FLOAT) {
+      float[] values = batch.getFloats(column);
+      for (int i = 0; i < rowGroups.length; i++) {
+        sums[rowGroups[i]] += values[selection[i]];
+      }
+    } else {
+      int[] values = batch.getInts(column);
+      for (int i = 0; i < rowGroups.length; i++) {
+        sums[rowGroups[i]] += values[selection[i]];
+      }
+    }
+  }
+
+  public String str() {
+    return "type: " + this.getType() +
+        "\ncolumn: " + this.groupByColumn +
+        "\ncolumns: " + this.getOutputSchema().getFieldNames();
+  }
+
+  /**
+   * Estimates the table statistics for the result of executing this query operator.
+   *
+   * @return estimated TableStats
+   */
+  public TableStats estimateStats() throws QueryPlanException {
+    return this.getSource().getStats();
+  }
+
+  public int estimateIOCost() throws QueryPlanException {
+    return this.getSource().getIOCost();
+  }
+
+  /**
+   * The running aggregates of each group, indexed by group number.
+   */
+  private class Accumulators {
+    private int numGroups;
+    private List<DataType> keys;
+    private int[] counts;
+    private double[] sums;
+    private double[] averageSums;
+
+    Accumulators() {
+      this.numGroups = 0;
+      this.keys = new ArrayList<DataType>();
+      this.counts = new int[16];
+      this.sums = new double[16];
+      this.averageSums = new double[16];
+    }
+
+    void addGroup(DataType key) {
+      if (this.numGroups == this.counts.length) {
+        this.counts = Arrays.copyOf(this.counts, this.numGroups * 2);
+        this.sums = Arrays.copyOf(this.sums, this.numGroups * 2);
+        this.averageSums = Arrays.copyOf(this.averageSums, this.numGroups * 2);
+      }
+      this.keys.add(key);
+      this.numGroups++;
+    }
+
+    /**
+     * Adds a group with no rows if there are no groups and only aggregates are selected, so that
+     * an empty input yields a count of 0 rather than no rows.
+     */
+    void addEmptyGroup() {
+      if (this.numGroups == 0 && GroupAggregateOperator.this.columns.isEmpty()) {
+        this.addGroup(null);
+      }
+    }
+
+    /**
+     * @param group a group number
+     * @return the output values of the group
+     */
+    List<DataType> getValues(int group) {
+      List<DataType> values = new ArrayList<DataType>();
+      for (int i = 0; i < GroupAggregateOperator.this.columns.size(); i++) {
+        values.add(this.keys.get(group));
+      }
+
+      if (GroupAggregateOperator.this.hasCount) {
+        values.add(new IntDataType(this.counts[group]));
+      }
+
+      if (GroupAggregateOperator.this.sumColumnIndex != -1) {
+        if (GroupAggregateOperator.this.sumIsFloat) {
+          values.add(new FloatDataType((float) this.sums[group]));
+        } else {
+          values.add(new IntDataType((int) this.sums[group]));
+        }
+      }
+
+      if (GroupAggregateOperator.this.averageColumnIndex != -1) {
+        float average = this.counts[group] == 0 ? 0f : (float) (this.averageSums[group] / this.counts[group]);
+        values.add(new FloatDataType(average));
+      }
+
+      return values;
+    }
+  }
+}
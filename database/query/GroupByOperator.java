@@ -5,6 +5,7 @@ import java.util.*;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -14,6 +15,7 @@ public class GroupByOperator extends QueryOperator {
   private int groupByColumnIndex;
   private String groupByColumn;
   private Database.Transaction transaction;
+  private int numPartitionTables;
 
   /**
    * Create a new GroupByOperator that pulls from source and groups by groupByColumn.
@@ -32,6 +34,7 @@ public class GroupByOperator extends QueryOperator {
     this.groupByColumn = this.checkSchemaForColumn(sourceSchema, groupByColumn);
 
     this.groupByColumnIndex = sourceSchema.getFieldNames().indexOf(this.groupByColumn);
+    this.numPartitionTables = 0;
 
     this.stats = this.estimateStats();
     this.cost = this.estimateIOCost();
@@ -41,52 +44,30 @@ public class GroupByOperator extends QueryOperator {
    * Read input tuples from source, group by groupByColumn, and return an iterator. Inserts
    * MarkerRecord between each group.
    *
+   * Groups are built in an in-memory hash table. If the input does not fit in the
+   * transaction's memory pages, the records are instead hash partitioned into temporary tables,
+   * and each partition is grouped on its own, partitioning it again with a different hash if it
+   * is still too large.
+   *
    * @return
    * @throws QueryPlanException
    * @throws DatabaseException
    */
   public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
-    Map<String, String> hashGroupTempTables = new HashMap<String, String>();
-    Iterator<Record> inputRecords = this.getSource().execute();
-
-    while (inputRecords.hasNext()) {
-      Record record = inputRecords.next();
-      DataType groupByColumn = record.getValues().get(this.groupByColumnIndex);
-
-      String tableName;
-      if (!hashGroupTempTables.containsKey(groupByColumn.toString())) {
-        tableName = "Temp" + this.groupByColumn + "GroupBy" + hashGroupTempTables.size();
-
-        this.transaction.createTempTable(this.getSource().getOutputSchema(), tableName);
-        hashGroupTempTables.put(groupByColumn.toString(), tableName);
-      } else {
-        tableName = hashGroupTempTables.get(groupByColumn.toString());
-      }
-
-      this.transaction.addRecord(tableName, record.getValues());
-    }
-
-    MarkerRecord markerRecord = MarkerRecord.getMarker();
-    List<Record> recordList = new ArrayList<Record>();
-
-    int count = 0;
-    for (String key : hashGroupTempTables.keySet()) {
-      String tableName = hashGroupTempTables.get(key);
-      Iterator<Record> recordIterator = this.transaction.getRecordIterator(tableName);
-
-      while (recordIterator.hasNext()) {
-        recordList.add(recordIterator.next());
-      }
-
-      if (++count < hashGroupTempTables.size()) {
-        recordList.add(markerRecord);
-      }
-    }
+    return new GroupByIterator(this.getSource().execute());
+  }
 
-    return recordList.iterator();
+  public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+    return new GroupByIterator(this.getSource().iterator());
   }
 
-  public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new GroupByIterator(); }
+  /**
+   * Grouping always runs record at a time through GroupByIterator, which spills to partitions
+   * once the input outgrows the transaction's memory pages.
+   */
+  public boolean supportsBatches() {
+    return false;
+  }
 
   protected Schema computeSchema() throws QueryPlanException {
     return this.getSource().getOutputSchema();
@@ -114,38 +95,97 @@ public class GroupByOperator extends QueryOperator {
    * An implementation of Iterator that provides an iterator interface for this operator.
    */
   private class GroupByIterator implements Iterator<Record> {
-    private Iterator<Record> sourceIterator;
+    // after this many levels of partitioning a partition is grouped in memory whatever its size,
+    // since it may be a single group
+    private static final int MAX_PARTITION_DEPTH = 4;
+
     private MarkerRecord markerRecord;
-    private Map<String, String> hashGroupTempTables;
-    private int currCount;
-    private Iterator<String> keyIter;
+    private Schema schema;
+    private DataType.Types keyType;
+    private int maxRecordsInMemory;
+    private int numPartitions;
+    private Deque<String> partitions;
+    private Deque<Integer> partitionDepths;
+    private Iterator<List<Record>> groupIter;
     private Iterator<Record> rIter;
+    private boolean startedGroup;
+    private boolean markerPending;
+
+    public GroupByIterator(Iterator<Record> sourceIterator) throws QueryPlanException, DatabaseException {
+      this.schema = GroupByOperator.this.getSource().getOutputSchema();
+      int numMemoryPages = GroupByOperator.this.transaction.getNumMemoryPages();
 
-    public GroupByIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = GroupByOperator.this.getSource().iterator();
       this.markerRecord = MarkerRecord.getMarker();
-      this.hashGroupTempTables = new HashMap<String, String>();
-      this.currCount = 0;
+      this.keyType = this.schema.getFieldTypes().get(GroupByOperator.this.groupByColumnIndex).type();
+      this.maxRecordsInMemory = Math.max(1, numMemoryPages * Page.pageSize / this.schema.getEntrySize());
+      this.numPartitions = Math.max(2, numMemoryPages - 1);
+      this.partitions = new ArrayDeque<String>();
+      this.partitionDepths = new ArrayDeque<Integer>();
+      this.groupIter = null;
       this.rIter = null;
+      this.startedGroup = false;
+      this.markerPending = false;
 
-      while (this.sourceIterator.hasNext()) {
-        Record record = this.sourceIterator.next();
-        DataType groupByColumn = record.getValues().get(GroupByOperator.this.groupByColumnIndex);
+      this.load(sourceIterator, 0);
+    }
 
-        String tableName;
-        if (!this.hashGroupTempTables.containsKey(groupByColumn.toString())) {
-          tableName = "Temp" + GroupByOperator.this.groupByColumn + "GroupBy" + this.hashGroupTempTables.size();
+    /**
+     * Groups the records of input in memory, or partitions them into temporary tables once there
+     * are more than fit in memory.
+     *
+     * @param input the records to group
+     * @param depth the number of times the records have been partitioned
+     */
+    private void load(Iterator<Record> input, int depth) throws DatabaseException {
+      int column = GroupByOperator.this.groupByColumnIndex;
+      GroupTable table = new GroupTable(column, this.keyType);
+      String[] partitionNames = null;
+
+      while (input.hasNext()) {
+        Record record = input.next();
+        if (partitionNames != null) {
+          this.addToPartition(partitionNames, record, depth);
+          continue;
+        }
 
-          GroupByOperator.this.transaction.createTempTable(GroupByOperator.this.getSource().getOutputSchema(), tableName);
-          this.hashGroupTempTables.put(groupByColumn.toString(), tableName);
-        } else {
-          tableName = this.hashGroupTempTables.get(groupByColumn.toString());
+        table.add(record);
+        if (table.getNumRecords() > this.maxRecordsInMemory && depth < MAX_PARTITION_DEPTH) {
+          partitionNames = this.createPartitions();
+          for (List<Record> group : table.getGroups()) {
+            for (Record r : group) {
+              this.addToPartition(partitionNames, r, depth);
+            }
+          }
+          table = null;
+        }
+      }
+
+      if (partitionNames == null) {
+        this.groupIter = table.getGroups().iterator();
+      } else {
+        // partitions are pushed in reverse so that they are grouped in order
+        for (int i = partitionNames.length - 1; i >= 0; i--) {
+          this.partitions.addFirst(partitionNames[i]);
+          this.partitionDepths.addFirst(depth + 1);
         }
+        this.groupIter = null;
+      }
+    }
 
-        GroupByOperator.this.transaction.addRecord(tableName, record.getValues());
+    private String[] createPartitions() throws DatabaseException {
+      String[] partitionNames = new String[this.numPartitions];
+      for (int i = 0; i < this.numPartitions; i++) {
+        partitionNames[i] = "Temp" + GroupByOperator.this.groupByColumn + "GroupByPartition"
+            + GroupByOperator.this.numPartitionTables++;
+        GroupByOperator.this.transaction.createTempTable(this.schema, partitionNames[i]);
       }
+      return partitionNames;
+    }
 
-      this.keyIter = hashGroupTempTables.keySet().iterator();
+    private void addToPartition(String[] partitionNames, Record record, int depth) throws DatabaseException {
+      int hash = GroupTable.hash(record, GroupByOperator.this.groupByColumnIndex, this.keyType, depth);
+      GroupByOperator.this.transaction.addRecord(partitionNames[hash % partitionNames.length],
+          record.getValues());
     }
 
     /**
@@ -154,7 +194,25 @@ public class GroupByOperator extends QueryOperator {
      * @return true if this iterator has another record to yield, otherwise false
      */
     public boolean hasNext() {
-      return this.keyIter.hasNext() || (this.rIter != null && this.rIter.hasNext());
+      while (!this.markerPending && (this.rIter == null || !this.rIter.hasNext())) {
+        if (this.groupIter != null && this.groupIter.hasNext()) {
+          this.rIter = this.groupIter.next().iterator();
+          this.markerPending = this.startedGroup;
+          this.startedGroup = true;
+        } else if (!this.partitions.isEmpty()) {
+          String tableName = this.partitions.removeFirst();
+          int depth = this.partitionDepths.removeFirst();
+          try {
+            this.load(GroupByOperator.this.transaction.getRecordIterator(tableName), depth);
+          } catch (DatabaseException de) {
+            throw new NoSuchElementException();
+          }
+          GroupByOperator.this.transaction.deleteTempTable(tableName);
+        } else {
+          return false;
+        }
+      }
+      return true;
     }
 
     /**
@@ -164,24 +222,14 @@ public class GroupByOperator extends QueryOperator {
      * @throws NoSuchElementException if there are no more Records to yield
      */
     public Record next() {
-      while (this.hasNext()) {
-        if (this.rIter != null && this.rIter.hasNext()) {
-          return this.rIter.next();
-        } else if (this.keyIter.hasNext()) {
-          String key = this.keyIter.next();
-          String tableName = this.hashGroupTempTables.get(key);
-          Iterator<Record> prevIter = this.rIter;
-          try {
-            this.rIter = GroupByOperator.this.transaction.getRecordIterator(tableName);
-          } catch (DatabaseException de) {
-            throw new NoSuchElementException();
-          }
-          if (prevIter != null && ++this.currCount < this.hashGroupTempTables.size()) {
-            return markerRecord;
-          }
-        }
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (this.markerPending) {
+        this.markerPending = false;
+        return this.markerRecord;
       }
-      throw new NoSuchElementException();
+      return this.rIter.next();
     }
 
     public void remove() {
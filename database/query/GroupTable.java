@@ -0,0 +1,187 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.table.LazyRecord;
+import edu.berkeley.cs186.database.table.Record;
+
+/**
+ * An in-memory hash table from the value of a group by column to the records of that group.
+ * Integer, float and boolean keys are read without decoding the record and stored as longs in an
+ * open addressing table; string keys are stored in a HashMap.
+ *
+ * Properties:
+ * `columnIndex`: the index of the group by column
+ * `keyType`: the type of the group by column
+ * `keys`, `slots`: the open addressing table of primitive keys and their group numbers (-1 if empty)
+ * `stringGroups`: the group number of each string key
+ * `groupKeys`: the key of each group, in the order the groups were first seen
+ * `groups`: the records of each group, if records are added with add
+ * `numRecords`: the number of records in the table
+ */
+class GroupTable {
+  private int columnIndex;
+  private DataType.Types keyType;
+  private long[] keys;
+  private int[] slots;
+  private Map<String, Integer> stringGroups;
+  private List<DataType> groupKeys;
+  private List<List<Record>> groups;
+  private int numRecords;
+
+  GroupTable(int columnIndex, DataType.Types keyType) {
+    this.columnIndex = columnIndex;
+    this.keyType = keyType;
+    this.keys = new long[64];
+    this.slots = new int[64];
+    Arrays.fill(this.slots, -1);
+    this.stringGroups = new HashMap<String, Integer>();
+    this.groupKeys = new ArrayList<DataType>();
+    this.groups = new ArrayList<List<Record>>();
+    this.numRecords = 0;
+  }
+
+  /**
+   * Adds a copy of record to its group, so that the record does not refer to a page.
+   *
+   * @param record the record to add
+   */
+  void add(Record record) {
+    int group = this.findGroup(record);
+    if (group == this.groups.size()) {
+      this.groups.add(new ArrayList<Record>());
+    }
+    this.groups.get(group).add(new Record(record.getValues()));
+    this.numRecords++;
+  }
+
+  /**
+   * Finds the group of record, adding a new group numbered getNumGroups() - 1 if its key has not
+   * been seen before.
+   *
+   * @param record the record to find the group of
+   * @return the group number of record
+   */
+  int findGroup(Record record) {
+    if (this.keyType == DataType.Types.STRING) {
+      String key = record.getValue(this.columnIndex).getString();
+      Integer found = this.stringGroups.get(key);
+      if (found == null) {
+        found = this.newGroup(record);
+        this.stringGroups.put(key, found);
+      }
+      return found;
+    }
+    return this.findOrAdd(primitiveKey(record, this.columnIndex, this.keyType), record);
+  }
+
+  int getNumGroups() {
+    return this.groupKeys.size();
+  }
+
+  /**
+   * @param group a group number
+   * @return the value of the group by column of the group
+   */
+  DataType getGroupKey(int group) {
+    return this.groupKeys.get(group);
+  }
+
+  int getNumRecords() {
+    return this.numRecords;
+  }
+
+  List<List<Record>> getGroups() {
+    return this.groups;
+  }
+
+  /**
+   * Hashes a column of record, mixed with seed so that each level of partitioning
+   * splits the records differently.
+   *
+   * @param record the record to hash
+   * @param columnIndex the index of the column to hash
+   * @param keyType the type of the column to hash
+   * @param seed the seed of the hash
+   * @return a non-negative hash
+   */
+  static int hash(Record record, int columnIndex, DataType.Types keyType, int seed) {
+    long key;
+    if (keyType == DataType.Types.STRING) {
+      key = record.getValue(columnIndex).getString().hashCode();
+    } else {
+      key = primitiveKey(record, columnIndex, keyType);
+    }
+    return (int) (mix(key ^ ((long) seed << 32)) >>> 33);
+  }
+
+  private static long primitiveKey(Record record, int columnIndex, DataType.Types keyType) {
+    LazyRecord lazy = record instanceof LazyRecord ? (LazyRecord) record : null;
+    switch (keyType) {
+      case INT:
+        return lazy != null ? lazy.readInt(columnIndex) : record.getValue(columnIndex).getInt();
+      case FLOAT:
+        return Float.floatToIntBits(lazy != null ? lazy.readFloat(columnIndex)
+            : record.getValue(columnIndex).getFloat());
+      case BOOL:
+      default:
+        return (lazy != null ? lazy.readBool(columnIndex) : record.getValue(columnIndex).getBool()) ? 1 : 0;
+    }
+  }
+
+  private static long mix(long key) {
+    key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+    key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return key ^ (key >>> 33);
+  }
+
+  private int findOrAdd(long key, Record record) {
+    int mask = this.slots.length - 1;
+    int i = (int) mix(key) & mask;
+    while (this.slots[i] != -1) {
+      if (this.keys[i] == key) {
+        return this.slots[i];
+      }
+      i = (i + 1) & mask;
+    }
+
+    int group = this.newGroup(record);
+    this.keys[i] = key;
+    this.slots[i] = group;
+    // keep the table at most half full
+    if (this.getNumGroups() * 2 > this.slots.length) {
+      this.grow();
+    }
+    return group;
+  }
+
+  private int newGroup(Record record) {
+    this.groupKeys.add(record.getValue(this.columnIndex));
+    return this.groupKeys.size() - 1;
+  }
+
+  private void grow() {
+    long[] oldKeys = this.keys;
+    int[] oldSlots = this.slots;
+    this.keys = new long[oldKeys.length * 2];
+    this.slots = new int[oldSlots.length * 2];
+    Arrays.fill(this.slots, -1);
+
+    int mask = this.slots.length - 1;
+    for (int j = 0; j < oldSlots.length; j++) {
+      if (oldSlots[j] != -1) {
+        int i = (int) mix(oldKeys[j]) & mask;
+        while (this.slots[i] != -1) {
+          i = (i + 1) & mask;
+        }
+        this.keys[i] = oldKeys[j];
+        this.slots[i] = oldSlots[j];
+      }
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * Joins each left record with the right records found by looking up its join value in the
+ * BPlusTree of the right table, instead of scanning the right table. The right source must be a
+ * sequential scan of a table with an index on the right join column.
+ *
+ * The batched variant reads a block of left records that fits in the memory pages, sorts it on
+ * the join column and probes each distinct value once, so consecutive probes walk the same
+ * inner nodes and neighbouring leaves while they are still in the buffer.
+ */
+public class IndexNLJOperator extends JoinOperator {
+
+    private String rightTableName;
+    private boolean batched;
+    private int numBuffers;
+    private int indexHeight;
+    private int indexPages;
+
+    public IndexNLJOperator(QueryOperator leftSource,
+                            QueryOperator rightSource,
+                            String leftColumnName,
+                            String rightColumnName,
+                            Database.Transaction transaction,
+                            boolean batched) throws QueryPlanException, DatabaseException {
+        super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.INDEXNL);
+
+        if (!canProbe(rightSource, rightColumnName, transaction)) {
+            throw new QueryPlanException("There is no index on " + rightColumnName
+                    + " to probe for an index nested loop join.");
+        }
+
+        this.rightTableName = ((SequentialScanOperator) rightSource).getTableName();
+        this.batched = batched;
+        this.numBuffers = transaction.getNumMemoryPages();
+        this.indexHeight = transaction.getIndexHeight(this.rightTableName, rightColumnName);
+        this.indexPages = transaction.getNumIndexPages(this.rightTableName, rightColumnName);
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    /**
+     * @param rightSource the right source of a join
+     * @param rightColumnName the right join column
+     * @param transaction the transaction containing the join
+     * @return true if rightSource is a table scan that can be replaced by probes of an index on
+     * rightColumnName
+     */
+    public static boolean canProbe(QueryOperator rightSource,
+                                   String rightColumnName,
+                                   Database.Transaction transaction) {
+        return rightSource.isSequentialScan() && transaction.indexExists(
+                ((SequentialScanOperator) rightSource).getTableName(), rightColumnName);
+    }
+
+    public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+        return new IndexNLJIterator();
+    }
+
+    public String str() {
+        return super.str() + "\nbatched: " + this.batched;
+    }
+
+    /**
+     * Every left page is read once. The index is unclustered, so every matching right record
+     * costs an IO on top of the probes. An unbatched probe walks the index from the root; a
+     * batched block walks it once and then reads at most one leaf per probe, and no more leaves
+     * than the index has.
+     */
+    public int estimateIOCost() throws QueryPlanException {
+        TableStats leftStats = this.getLeftSource().getStats();
+        int leftPages = leftStats.getNumPages();
+        int leftRecords = leftStats.getNumRecords();
+        int matches = this.getStats().getNumRecords();
+
+        if (!this.batched) {
+            return leftPages + leftRecords * this.indexHeight + matches;
+        }
+
+        int blockSize = this.getBlockSize();
+        int numBlocks = (leftRecords + blockSize - 1) / blockSize;
+        int leavesPerBlock = Math.min(Math.min(blockSize, leftRecords), this.indexPages);
+        return leftPages + numBlocks * (this.indexHeight + leavesPerBlock) + matches;
+    }
+
+    /**
+     * @return the number of left records that fit in the memory pages left over from the left
+     * input page and the index pages
+     */
+    private int getBlockSize() throws QueryPlanException {
+        int entrySize = this.getLeftSource().getOutputSchema().getEntrySize();
+        return Math.max(1, Math.max(1, this.numBuffers - 2) * Page.pageSize / entrySize);
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     */
+    private class IndexNLJIterator implements Iterator<Record> {
+        private Iterator<Record> leftIterator;
+        private Iterator<Record> block;
+        private Record leftRecord;
+        private Iterator<Record> rightIterator;
+        private Record nextRecord;
+        private int blockSize;
+        // the last value probed by the batched variant and the right records it matched, or null
+        // if it matched more than a block's worth and is probed again for each left record
+        private DataType probedValue;
+        private List<Record> probedRecords;
+
+        public IndexNLJIterator() throws QueryPlanException, DatabaseException {
+            this.leftIterator = IndexNLJOperator.this.getLeftSource().iterator();
+            this.block = Collections.<Record>emptyList().iterator();
+            this.leftRecord = null;
+            this.rightIterator = null;
+            this.nextRecord = null;
+            this.blockSize = IndexNLJOperator.this.getBlockSize();
+            this.probedValue = null;
+            this.probedRecords = null;
+        }
+
+        /**
+         * Checks if there are more record(s) to yield
+         *
+         * @return true if this iterator has another record to yield, otherwise false
+         */
+        public boolean hasNext() {
+            if (this.nextRecord != null) {
+                return true;
+            }
+
+            while (true) {
+                if (this.rightIterator != null && this.rightIterator.hasNext()) {
+                    List<DataType> values = new ArrayList<DataType>(this.leftRecord.getValues());
+                    values.addAll(this.rightIterator.next().getValues());
+                    this.nextRecord = new Record(values);
+                    return true;
+                }
+
+                this.leftRecord = this.nextLeftRecord();
+                if (this.leftRecord == null) {
+                    return false;
+                }
+
+                try {
+                    this.rightIterator = this.probe(
+                            this.leftRecord.getValue(IndexNLJOperator.this.getLeftColumnIndex()));
+                } catch (DatabaseException e) {
+                    return false;
+                }
+            }
+        }
+
+        private Record nextLeftRecord() {
+            if (!IndexNLJOperator.this.batched) {
+                return this.leftIterator.hasNext() ? this.leftIterator.next() : null;
+            }
+
+            if (!this.block.hasNext()) {
+                List<Record> records = new ArrayList<Record>();
+                while (records.size() < this.blockSize && this.leftIterator.hasNext()) {
+                    // copied so that the block does not refer to the pages of the left input
+                    records.add(new Record(this.leftIterator.next().getValues()));
+                }
+
+                final int column = IndexNLJOperator.this.getLeftColumnIndex();
+                Collections.sort(records, new Comparator<Record>() {
+                    public int compare(Record a, Record b) {
+                        return a.getValue(column).compareTo(b.getValue(column));
+                    }
+                });
+                this.block = records.iterator();
+            }
+            return this.block.hasNext() ? this.block.next() : null;
+        }
+
+        private Iterator<Record> probe(DataType value) throws DatabaseException {
+            Database.Transaction transaction = IndexNLJOperator.this.getTransaction();
+            String rightColumnName = IndexNLJOperator.this.getRightColumnName();
+            if (!IndexNLJOperator.this.batched) {
+                return transaction.lookupKey(IndexNLJOperator.this.rightTableName, rightColumnName, value);
+            }
+
+            // the block is sorted, so equal left values are probed once unless their matches do not
+            // fit in the memory budget
+            if (this.probedValue == null || !value.equals(this.probedValue)) {
+                this.probedValue = value;
+                this.probedRecords = new ArrayList<Record>();
+                Iterator<Record> matches = transaction.lookupKey(IndexNLJOperator.this.rightTableName,
+                        rightColumnName, value);
+                while (matches.hasNext()) {
+                    if (this.probedRecords.size() == this.blockSize) {
+                        this.probedRecords = null;
+                        break;
+                    }
+                    this.probedRecords.add(new Record(matches.next().getValues()));
+                }
+            }
+            if (this.probedRecords == null) {
+                return transaction.lookupKey(IndexNLJOperator.this.rightTableName, rightColumnName, value);
+            }
+            return this.probedRecords.iterator();
+        }
+
+        /**
+         * Yields the next record of this iterator.
+         *
+         * @return the next Record
+         * @throws NoSuchElementException if there are no more Records to yield
+         */
+        public Record next() {
+            if (this.hasNext()) {
+                Record r = this.nextRecord;
+                this.nextRecord = null;
+                return r;
+            }
+            throw new NoSuchElementException();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -21,6 +21,7 @@ public class IndexScanOperator extends QueryOperator {
   private DataType value;
 
   private int columnIndex;
+  private String sortColumn;
 
   /**
    * An index scan operator.
@@ -47,6 +48,7 @@ public class IndexScanOperator extends QueryOperator {
 
     columnName = this.checkSchemaForColumn(this.getOutputSchema(), columnName);
     this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(columnName);
+    this.sortColumn = columnName;
 
     this.stats = this.estimateStats();
     this.cost = this.estimateIOCost();
@@ -58,22 +60,8 @@ public class IndexScanOperator extends QueryOperator {
 
       return this.transaction.lookupKey(this.tableName, this.columnName, this.value);
     } else if (this.predicate == QueryPlan.PredicateOperator.LESS_THAN) {
-      // if less than, scan until you get any values >= to the boundary value
-
-      Iterator<Record> recordIterator = this.transaction.sortedScan(this.tableName, this.columnName);
-      List<Record> recordList = new ArrayList<Record>();
-
-      while (recordIterator.hasNext()) {
-        Record record = recordIterator.next();
-
-        if (record.getValues().get(this.columnIndex).compareTo(this.value) >= 0) {
-          break;
-        }
-
-        recordList.add(record);
-      }
-
-      return recordList.iterator();
+      // if less than, the index stops the scan at the boundary value
+      return this.transaction.sortedScanRange(this.tableName, this.columnName, null, this.value);
     } else if (this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS){
       // if less than or equals, scan until you get values > the boundary valeu
 
@@ -83,7 +71,7 @@ public class IndexScanOperator extends QueryOperator {
       while (recordIterator.hasNext()) {
         Record record = recordIterator.next();
 
-        if (record.getValues().get(this.columnIndex).compareTo(this.value) > 0) {
+        if (record.getValue(this.columnIndex).compareTo(this.value) > 0) {
           break;
         }
 
@@ -103,7 +91,7 @@ public class IndexScanOperator extends QueryOperator {
         while (recordIterator.hasNext()) {
           record = recordIterator.next();
 
-          if (record.getValues().get(this.columnIndex).compareTo(this.value) > 0) {
+          if (record.getValue(this.columnIndex).compareTo(this.value) > 0) {
             break;
           }
         }
@@ -123,6 +111,15 @@ public class IndexScanOperator extends QueryOperator {
     }
   }
 
+  /**
+   * Records are read from the index in key order, so they are sorted on the indexed column.
+   *
+   * @return the fully qualified name of the indexed column
+   */
+  public String getSortColumn() {
+    return this.sortColumn;
+  }
+
   public String str() {
     return "type: " + this.getType() +
         "\ntable: " + this.tableName +
@@ -205,8 +202,13 @@ public class IndexScanOperator extends QueryOperator {
                 IndexScanOperator.this.tableName,
                 IndexScanOperator.this.columnName,
                 IndexScanOperator.this.value);
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN ||
-              IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS){
+      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN) {
+        this.sourceIterator = IndexScanOperator.this.transaction.sortedScanRange(
+                IndexScanOperator.this.tableName,
+                IndexScanOperator.this.columnName,
+                null,
+                IndexScanOperator.this.value);
+      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS){
         this.sourceIterator = IndexScanOperator.this.transaction.sortedScan(
                 IndexScanOperator.this.tableName,
                 IndexScanOperator.this.columnName);
@@ -218,7 +220,7 @@ public class IndexScanOperator extends QueryOperator {
         while (this.sourceIterator.hasNext()) {
           Record r = this.sourceIterator.next();
 
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
+          if (r.getValue(IndexScanOperator.this.columnIndex)
                   .compareTo(IndexScanOperator.this.value) > 0) {
             this.nextRecord = r;
             break;
@@ -241,21 +243,10 @@ public class IndexScanOperator extends QueryOperator {
       if (this.nextRecord != null) {
         return true;
       }
-      if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN) {
-        if (this.sourceIterator.hasNext()) {
-          Record r = this.sourceIterator.next();
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                  .compareTo(IndexScanOperator.this.value) >= 0) {
-            return false;
-          }
-          this.nextRecord = r;
-          return true;
-        }
-        return false;
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
+      if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
         if (this.sourceIterator.hasNext()) {
           Record r = this.sourceIterator.next();
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
+          if (r.getValue(IndexScanOperator.this.columnIndex)
                   .compareTo(IndexScanOperator.this.value) > 0) {
             return false;
           }
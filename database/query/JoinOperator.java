@@ -20,7 +20,10 @@ public abstract class JoinOperator extends QueryOperator {
     SNLJ,
     PNLJ,
     BNLJ,
-    GRACEHASH
+    GRACEHASH,
+    SORTMERGE,
+    INDEXNL,
+    HYBRIDHASH
   }
 
   private String leftColumnName;
@@ -33,6 +36,7 @@ public abstract class JoinOperator extends QueryOperator {
   private QueryOperator leftSource;
   private QueryOperator rightSource;
   private Database.Transaction transaction;
+  private int numExecutions;
 
   /**
    * Create a join operator that pulls tuples from leftSource and rightSource. Returns tuples for which
@@ -63,41 +67,36 @@ public abstract class JoinOperator extends QueryOperator {
     this.setOutputSchema(this.computeSchema());
 
     this.transaction = transaction;
+    this.numExecutions = 0;
   }
 
   /**
    * Joins tuples from leftSource and rightSource and returns an iterator of records.
-   * Executes a join using simple nested loop join.
+   * Executes a join using simple nested loop join. The join is computed lazily as the iterator
+   * is consumed. The right source is scanned once per left record, so unless it is a sequential
+   * scan its output is first written to a temporary table rather than being recomputed. The
+   * temporary table is deleted once the iterator is exhausted.
    *
    * @return an iterator of records
    * @throws QueryPlanException
    * @throws DatabaseException
    */
   public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
-    List<Record> newRecords = new ArrayList<Record>();
-    Iterator<Record> leftIterator = this.leftSource.execute();
-
-    while (leftIterator.hasNext()) {
-      Record leftRecord = leftIterator.next();
-
+    String rightTableName;
+    boolean rightIsTemp = !this.rightSource.isSequentialScan();
+    if (!rightIsTemp) {
+      rightTableName = ((SequentialScanOperator) this.rightSource).getTableName();
+    } else {
+      rightTableName = "Temp" + this.joinType + "Execute" + this.rightColumnName + "Right" + this.numExecutions;
+      this.createTempTable(this.rightSource.getOutputSchema(), rightTableName);
       Iterator<Record> rightIterator = this.rightSource.execute();
       while (rightIterator.hasNext()) {
-        Record rightRecord = rightIterator.next();
-
-        DataType leftJoinValue = leftRecord.getValues().get(this.leftColumnIndex);
-        DataType rightJoinValue = rightRecord.getValues().get(this.rightColumnIndex);
-
-        if (leftJoinValue.equals(rightJoinValue)) {
-          List<DataType> leftValues = new ArrayList<DataType>(leftRecord.getValues());
-          List<DataType> rightValues = new ArrayList<DataType>(rightRecord.getValues());
-
-          leftValues.addAll(rightValues);
-          newRecords.add(new Record(leftValues));
-        }
+        this.addRecord(rightTableName, rightIterator.next().getValues());
       }
     }
+    this.numExecutions++;
 
-    return newRecords.iterator();
+    return new NestedLoopIterator(this.leftSource.execute(), rightTableName, rightIsTemp);
   }
 
   public abstract Iterator<Record> iterator() throws QueryPlanException, DatabaseException;
@@ -191,10 +190,22 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getPageIterator(tableName);
   }
 
+  public Page pinPage(String tableName, int pageNum) throws DatabaseException {
+    return this.transaction.pinPage(tableName, pageNum);
+  }
+
+  public void unpinPage(String tableName, int pageNum) throws DatabaseException {
+    this.transaction.unpinPage(tableName, pageNum);
+  }
+
   public byte[] getPageHeader(String tableName, Page p) throws DatabaseException {
     return this.transaction.readPageHeader(tableName, p);
   }
 
+  public Record readRecord(String tableName, Page p, int slot) throws DatabaseException {
+    return this.transaction.readRecord(tableName, p, slot);
+  }
+
   public int getNumEntriesPerPage(String tableName) throws DatabaseException {
     return this.transaction.getNumEntriesPerPage(tableName);
   }
@@ -242,4 +253,92 @@ public abstract class JoinOperator extends QueryOperator {
   public JoinType getJoinType() {
     return this.joinType;
   }
+
+  /**
+   * An implementation of Iterator that lazily joins the records of the left source with the
+   * records of a table using simple nested loop join. If the table is a temporary table holding
+   * the right source, it is deleted once the left source is exhausted.
+   */
+  private class NestedLoopIterator implements Iterator<Record> {
+    private Iterator<Record> leftIterator;
+    private Iterator<Record> rightIterator;
+    private String rightTableName;
+    private boolean deleteRight;
+    private Record leftRecord;
+    private Record nextRecord;
+
+    public NestedLoopIterator(Iterator<Record> leftIterator, String rightTableName,
+                              boolean deleteRight) {
+      this.leftIterator = leftIterator;
+      this.rightIterator = null;
+      this.rightTableName = rightTableName;
+      this.deleteRight = deleteRight;
+      this.leftRecord = null;
+      this.nextRecord = null;
+    }
+
+    /**
+     * Checks if there are more record(s) to yield
+     *
+     * @return true if this iterator has another record to yield, otherwise false
+     */
+    public boolean hasNext() {
+      if (this.nextRecord != null) {
+        return true;
+      }
+
+      while (true) {
+        if (this.leftRecord == null) {
+          if (!this.leftIterator.hasNext()) {
+            if (this.deleteRight) {
+              JoinOperator.this.transaction.deleteTempTable(this.rightTableName);
+              this.deleteRight = false;
+            }
+            return false;
+          }
+          this.leftRecord = this.leftIterator.next();
+          try {
+            this.rightIterator = JoinOperator.this.getTableIterator(this.rightTableName);
+          } catch (DatabaseException e) {
+            return false;
+          }
+        }
+
+        DataType leftJoinValue = this.leftRecord.getValue(JoinOperator.this.leftColumnIndex);
+        while (this.rightIterator.hasNext()) {
+          Record rightRecord = this.rightIterator.next();
+          DataType rightJoinValue = rightRecord.getValue(JoinOperator.this.rightColumnIndex);
+
+          if (leftJoinValue.equals(rightJoinValue)) {
+            List<DataType> leftValues = new ArrayList<DataType>(this.leftRecord.getValues());
+            List<DataType> rightValues = new ArrayList<DataType>(rightRecord.getValues());
+
+            leftValues.addAll(rightValues);
+            this.nextRecord = new Record(leftValues);
+            return true;
+          }
+        }
+        this.leftRecord = null;
+      }
+    }
+
+    /**
+     * Yields the next record of this iterator.
+     *
+     * @return the next Record
+     * @throws NoSuchElementException if there are no more Records to yield
+     */
+    public Record next() {
+      if (this.hasNext()) {
+        Record r = this.nextRecord;
+        this.nextRecord = null;
+        return r;
+      }
+      throw new NoSuchElementException();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -10,6 +10,7 @@ import edu.berkeley.cs186.database.datatypes.DataType;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.SlotBitmap;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -56,14 +57,10 @@ public class PNLJOperator extends JoinOperator {
         private Record rightRecord;
         private Page leftPage;
         private Page rightPage;
-        private byte[] leftPageHeader;
-        private byte[] rightPageHeader;
+        private SlotBitmap leftPageHeader;
+        private SlotBitmap rightPageHeader;
         private int leftPageIndex;
-        private int leftPageHeaderSize;
-        private int leftEntrySize;
         private int rightPageIndex;
-        private int rightPageHeaderSize;
-        private int rightEntrySize;
 
 
         public PNLJIterator() throws QueryPlanException, DatabaseException {
@@ -100,13 +97,9 @@ public class PNLJOperator extends JoinOperator {
             this.leftPage = null;
             this.leftPageHeader = null;
             this.leftPageIndex = 0;
-            this.leftPageHeaderSize = PNLJOperator.this.getHeaderSize(this.leftTableName);
-            this.leftEntrySize = PNLJOperator.this.getEntrySize(this.leftTableName);
             this.rightPage = null;
             this.rightPageHeader = null;
             this.rightPageIndex = 0;
-            this.rightPageHeaderSize = PNLJOperator.this.getHeaderSize(this.rightTableName);
-            this.rightEntrySize = PNLJOperator.this.getEntrySize(this.rightTableName);
         }
 
         public boolean hasNext() {
@@ -122,7 +115,7 @@ public class PNLJOperator extends JoinOperator {
                     if (leftIterator.hasNext()) {
                         this.leftPage = leftIterator.next();
                         try {
-                            this.leftPageHeader = PNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage);
+                            this.leftPageHeader = new SlotBitmap(PNLJOperator.this.getPageHeader(this.leftTableName, this.leftPage));
                             this.rightIterator = PNLJOperator.this.getPageIterator(this.rightTableName);
                             this.rightIterator.next();
                         } catch (DatabaseException e) {
@@ -138,7 +131,7 @@ public class PNLJOperator extends JoinOperator {
                     if (this.rightIterator.hasNext()) {
                         this.rightPage = this.rightIterator.next();
                         try {
-                            this.rightPageHeader = PNLJOperator.this.getPageHeader(this.rightTableName, this.rightPage);
+                            this.rightPageHeader = new SlotBitmap(PNLJOperator.this.getPageHeader(this.rightTableName, this.rightPage));
                         } catch (DatabaseException e) {
                             return false;
                         }
@@ -151,7 +144,11 @@ public class PNLJOperator extends JoinOperator {
                 else if (this.leftRecord == null) {
                     int slot = this.getNextFilledSlotNum(this.leftPageIndex, this.leftPageHeader);
                     if (slot >= 0) {
-                        this.leftRecord = this.getRecord(slot, this.leftPage, "left");
+                        try {
+                            this.leftRecord = this.getRecord(slot, this.leftPage, "left");
+                        } catch (DatabaseException e) {
+                            return false;
+                        }
                     } else {
                         this.rightPage = null;
                         this.leftPageIndex = 0;
@@ -160,9 +157,13 @@ public class PNLJOperator extends JoinOperator {
                 else {
                     int slot = this.getNextFilledSlotNum(this.rightPageIndex, this.rightPageHeader);
                     while (slot >= 0) {
-                        this.rightRecord = this.getRecord(slot, this.rightPage, "right");
-                        DataType leftJoinValue = this.leftRecord.getValues().get(PNLJOperator.this.getLeftColumnIndex());
-                        DataType rightJoinValue = this.rightRecord.getValues().get(PNLJOperator.this.getRightColumnIndex());
+                        try {
+                            this.rightRecord = this.getRecord(slot, this.rightPage, "right");
+                        } catch (DatabaseException e) {
+                            return false;
+                        }
+                        DataType leftJoinValue = this.leftRecord.getValue(PNLJOperator.this.getLeftColumnIndex());
+                        DataType rightJoinValue = this.rightRecord.getValue(PNLJOperator.this.getRightColumnIndex());
 
                         if (leftJoinValue.equals(rightJoinValue)) {
                             List<DataType> leftValues = new ArrayList<DataType>(this.leftRecord.getValues());
@@ -184,17 +185,13 @@ public class PNLJOperator extends JoinOperator {
          * gets the next record on this page starting from given index
          * so get record(0, page, "left") will get the first record on the given left page
          */
-        private Record getRecord(int slot, Page cur_page, String side) {
+        private Record getRecord(int slot, Page cur_page, String side) throws DatabaseException {
             if (side == "left") {
                 this.leftPageIndex = slot + 1;
-                int offset = this.leftPageHeaderSize + slot * this.leftEntrySize;
-                byte[] encoded_record = cur_page.readBytes(offset, this.leftEntrySize);
-                return PNLJOperator.this.getLeftSource().getOutputSchema().decode(encoded_record);
+                return PNLJOperator.this.readRecord(this.leftTableName, cur_page, slot);
             } else {
                 this.rightPageIndex = slot + 1;
-                int offset = this.rightPageHeaderSize + slot * this.rightEntrySize;
-                byte[] encoded_record = cur_page.readBytes(offset, this.rightEntrySize);
-                return PNLJOperator.this.getRightSource().getOutputSchema().decode(encoded_record);
+                return PNLJOperator.this.readRecord(this.rightTableName, cur_page, slot);
             }
         }
 
@@ -204,19 +201,8 @@ public class PNLJOperator extends JoinOperator {
          * @param page_header page header to check for records
          * @return next valid slot number or -1 if there are none
          */
-        private int getNextFilledSlotNum(int start, byte[] page_header) {
-            int count = 0;
-            for (byte b : page_header) {
-                for (int mask = 0x80; mask != 0x00; mask >>>= 1) {
-                    if ((b & (byte) mask) == (byte) mask) {
-                        if (count >= start) {
-                            return count;
-                        }
-                    }
-                    count++;
-                }
-            }
-            return -1;
+        private int getNextFilledSlotNum(int start, SlotBitmap page_header) {
+            return page_header.nextSetSlot(start);
         }
 
         /**
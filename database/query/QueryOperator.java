@@ -21,7 +21,8 @@ public abstract class QueryOperator {
     WHERE,
     GROUPBY,
     SEQSCAN,
-    INDEXSCAN
+    INDEXSCAN,
+    SORT
   }
 
   private OperatorType type;
@@ -68,6 +69,10 @@ public abstract class QueryOperator {
     return this.type.equals(OperatorType.INDEXSCAN);
   }
 
+  public boolean isSort() {
+    return this.type.equals(OperatorType.SORT);
+  }
+
   public QueryOperator getSource() throws QueryPlanException {
     return this.source;
   }
@@ -89,6 +94,16 @@ public abstract class QueryOperator {
     return this.operatorSchema;
   }
 
+  /**
+   * The column the output of this operator is sorted on, if any. Operators that keep the order
+   * of their source pass it through.
+   *
+   * @return the fully qualified name of the sort column, or null if the output is not sorted
+   */
+  public String getSortColumn() {
+    return null;
+  }
+
   protected void setOutputSchema(Schema schema) {
     this.operatorSchema = schema;
   }
@@ -99,6 +114,25 @@ public abstract class QueryOperator {
 
   public abstract Iterator<Record> iterator() throws QueryPlanException, DatabaseException;
 
+  /**
+   * Whether this operator, and every operator it reads from, can run in batch mode.
+   *
+   * @return true if batchIterator is supported
+   */
+  public boolean supportsBatches() {
+    return false;
+  }
+
+  /**
+   * Runs this operator in batch mode, yielding ColumnBatches instead of single records.
+   *
+   * @return an iterator of ColumnBatches
+   * @throws QueryPlanException if this operator does not support batch mode
+   */
+  public Iterator<ColumnBatch> batchIterator() throws QueryPlanException, DatabaseException {
+    throw new QueryPlanException("Operator " + this.getType() + " does not support batch execution.");
+  }
+
   /**
    * Utility method that checks to see if a column is found in a schema using dot notation.
    *
@@ -161,7 +161,8 @@ public class QueryPlan {
 
   /**
    * Generates a naïve QueryPlan in which all joins are at the bottom of the DAG followed by all where
-   * predicates, an optional group by operator, and a set of selects (in that order).
+   * predicates, an optional group by operator, and a set of selects (in that order). If every
+   * operator of the plan supports batch mode, the plan is run on ColumnBatches.
    *
    * @return an iterator of records that is the result of this query
    * @throws DatabaseException
@@ -182,6 +183,11 @@ public class QueryPlan {
       this.addSelects();
     }
 
+    // run the plan a batch at a time when every operator in it can
+    if (this.finalOperator.supportsBatches()) {
+      return new BatchRecordIterator(this.finalOperator.batchIterator());
+    }
+
     return this.finalOperator.execute();
   }
 
@@ -260,16 +266,28 @@ public class QueryPlan {
    * @throws QueryPlanException
    */
   private QueryOperator pushDownWheres(QueryOperator source, int except) throws QueryPlanException, DatabaseException {
-    for (String column : this.whereColumnNames) {
+    List<String> columns = new ArrayList<String>();
+    List<PredicateOperator> operators = new ArrayList<PredicateOperator>();
+    List<DataType> values = new ArrayList<DataType>();
+
+    for (int i = 0; i < this.whereColumnNames.size(); i++) {
+      String column = this.whereColumnNames.get(i);
       for (String sourceColumn : source.getOutputSchema().getFieldNames()) {
         if (source.checkColumnNameEquality(sourceColumn, column)) {
-          int columnIndex = this.whereColumnNames.indexOf(column);
-          if (columnIndex != except) {
-            source = new WhereOperator(source, column, this.whereOperators.get(columnIndex), this.whereDataTypes.get(columnIndex));
+          if (i != except) {
+            columns.add(column);
+            operators.add(this.whereOperators.get(i));
+            values.add(this.whereDataTypes.get(i));
           }
+          break;
         }
       }
     }
+
+    // all the predicates on this source are evaluated by one WhereOperator
+    if (!columns.isEmpty()) {
+      source = new WhereOperator(source, columns, operators, values);
+    }
     return source;
   }
 
@@ -336,6 +354,12 @@ public class QueryPlan {
     choices.add(new PNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
     choices.add(new BNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
     choices.add(new GraceHashOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+    choices.add(new GraceHashOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction, true));
+    choices.add(new SortMergeOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+    if (IndexNLJOperator.canProbe(rightOp, rightColumn, this.transaction)) {
+      choices.add(new IndexNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction, false));
+      choices.add(new IndexNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction, true));
+    }
 
     for (QueryOperator q : choices) {
       int estIO = q.estimateIOCost();
@@ -484,27 +508,26 @@ public class QueryPlan {
   }
 
   private void addWheres() throws QueryPlanException, DatabaseException {
-    int index = 0;
-
-    for (String whereColumn : this.whereColumnNames) {
-      PredicateOperator operator = this.whereOperators.get(index);
-      DataType value = this.whereDataTypes.get(index);
-
-      WhereOperator whereOperator = new WhereOperator(this.finalOperator, whereColumn,
-          operator, value);
-
-      this.finalOperator = whereOperator;
-      index++;
+    if (!this.whereColumnNames.isEmpty()) {
+      this.finalOperator = new WhereOperator(this.finalOperator, this.whereColumnNames,
+          this.whereOperators, this.whereDataTypes);
     }
   }
 
   private void addGroupBy() throws QueryPlanException, DatabaseException {
     if (this.groupByColumn != null) {
       if (this.selectColumns.size() > 2 || (this.selectColumns.size() == 1 &&
-          !this.selectColumns.get(0).equals(this.groupByColumn))) {
+          !this.isSameColumn(this.selectColumns.get(0), this.groupByColumn))) {
         throw new QueryPlanException("Can only select columns specified in the GROUP BY clause.");
       }
 
+      if (this.isGroupAggregate()) {
+        // the aggregates are computed while grouping, so addSelects has nothing left to do
+        this.finalOperator = new GroupAggregateOperator(this.finalOperator, this.groupByColumn,
+            this.selectColumns, this.hasCount, this.averageColumnName, this.sumColumnName);
+        return;
+      }
+
       GroupByOperator groupByOperator = new GroupByOperator(this.finalOperator, this.transaction,
           this.groupByColumn);
 
@@ -512,7 +535,38 @@ public class QueryPlan {
     }
   }
 
+  /**
+   * @return true if this query groups by a column and selects nothing but that column and
+   * aggregates, so that a GroupAggregateOperator can replace the group by and select
+   */
+  private boolean isGroupAggregate() {
+    if (this.groupByColumn == null) {
+      return false;
+    }
+    if (!this.hasCount && this.sumColumnName == null && this.averageColumnName == null) {
+      return false;
+    }
+    for (String column : this.selectColumns) {
+      if (!this.isSameColumn(column, this.groupByColumn)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if a and b name the same column, where either may be qualified with its table
+   */
+  private boolean isSameColumn(String a, String b) {
+    return this.finalOperator.checkColumnNameEquality(a, b)
+        || this.finalOperator.checkColumnNameEquality(b, a);
+  }
+
   private void addSelects() throws QueryPlanException, DatabaseException {
+    if (this.isGroupAggregate()) {
+      return;
+    }
+
     if (!this.selectColumns.isEmpty() || this.hasCount || this.sumColumnName != null
         || this.averageColumnName != null) {
       SelectOperator selectOperator = new SelectOperator(this.finalOperator, this.selectColumns,
@@ -86,8 +86,8 @@ public class SNLJOperator extends JoinOperator {
         while (this.rightIterator.hasNext()) {
           Record rightRecord = this.rightIterator.next();
 
-          DataType leftJoinValue = this.leftRecord.getValues().get(SNLJOperator.this.getLeftColumnIndex());
-          DataType rightJoinValue = rightRecord.getValues().get(SNLJOperator.this.getRightColumnIndex());
+          DataType leftJoinValue = this.leftRecord.getValue(SNLJOperator.this.getLeftColumnIndex());
+          DataType rightJoinValue = rightRecord.getValue(SNLJOperator.this.getRightColumnIndex());
 
           if (leftJoinValue.equals(rightJoinValue)) {
             List<DataType> leftValues = new ArrayList<DataType>(this.leftRecord.getValues());
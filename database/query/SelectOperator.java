@@ -268,6 +268,39 @@ public class SelectOperator extends QueryOperator {
 
   public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new SelectIterator(); }
 
+  public boolean supportsBatches() {
+    return this.source.supportsBatches();
+  }
+
+  /**
+   * Without aggregates, projects each batch of the source operator without copying its rows.
+   * With aggregates, yields a single batch holding the row of aggregates.
+   *
+   * @return an iterator of ColumnBatches
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public Iterator<ColumnBatch> batchIterator() throws QueryPlanException, DatabaseException {
+    if (this.hasAggregate) {
+      return new SelectAggregateBatchIterator();
+    }
+
+    final Iterator<ColumnBatch> sourceIterator = this.getSource().batchIterator();
+    return new Iterator<ColumnBatch>() {
+      public boolean hasNext() {
+        return sourceIterator.hasNext();
+      }
+
+      public ColumnBatch next() {
+        return sourceIterator.next().project(SelectOperator.this.indices);
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
   private void addToCount() {
     this.countValue++;
   }
@@ -280,9 +313,9 @@ public class SelectOperator extends QueryOperator {
 
   private void addToSum(Record record) {
     if (this.sumIsFloat) {
-      this.sumValue += record.getValues().get(this.sumColumnIndex).getFloat();
+      this.sumValue += record.getValue(this.sumColumnIndex).getFloat();
     } else {
-      this.sumValue += record.getValues().get(this.sumColumnIndex).getInt();
+      this.sumValue += record.getValue(this.sumColumnIndex).getInt();
     }
   }
 
@@ -294,7 +327,7 @@ public class SelectOperator extends QueryOperator {
 
   private void addToAverage(Record record) {
     this.averageCountValue++;
-    this.averageSumValue += record.getValues().get(this.averageColumnIndex).getInt();
+    this.averageSumValue += record.getValue(this.averageColumnIndex).getInt();
   }
 
   private double getAndResetAverage() {
@@ -467,4 +500,119 @@ public class SelectOperator extends QueryOperator {
       throw new UnsupportedOperationException();
     }
   }
+
+  /**
+   * An implementation of Iterator that computes the aggregates of the whole input straight from
+   * the column arrays of the source batches, yielding them as a single batch of one row.
+   */
+  private class SelectAggregateBatchIterator implements Iterator<ColumnBatch> {
+    private Iterator<ColumnBatch> sourceIterator;
+    private List<DataType> baseValues;
+    private int count;
+    private double sum;
+    private double averageSum;
+    private boolean done;
+
+    public SelectAggregateBatchIterator() throws QueryPlanException, DatabaseException {
+      this.sourceIterator = SelectOperator.this.getSource().batchIterator();
+      this.baseValues = null;
+      this.done = false;
+    }
+
+    public boolean hasNext() {
+      return !this.done;
+    }
+
+    public ColumnBatch next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      while (this.sourceIterator.hasNext()) {
+        this.aggregate(this.sourceIterator.next());
+      }
+
+      ColumnBatch output = new ColumnBatch(SelectOperator.this.getOutputSchema(), new ColumnBatch.Dictionary());
+      this.addAggregates(output);
+      this.done = true;
+      return output;
+    }
+
+    private void aggregate(ColumnBatch batch) {
+      int[] selection = batch.getSelection();
+      int numSelected = batch.getNumSelected();
+      if (numSelected == 0) {
+        return;
+      }
+
+      if (this.baseValues == null) {
+        this.baseValues = new ArrayList<DataType>();
+        for (int index : SelectOperator.this.indices) {
+          this.baseValues.add(batch.getValue(index, selection[0]));
+        }
+      }
+
+      this.count += numSelected;
+      if (SelectOperator.this.sumColumnIndex != -1) {
+        this.sum += this.sumColumn(batch, SelectOperator.this.sumColumnIndex);
+      }
+      if (SelectOperator.this.averageColumnIndex != -1) {
+        this.averageSum += this.sumColumn(batch, SelectOperator.this.averageColumnIndex);
+      }
+    }
+
+    private double sumColumn(ColumnBatch batch, int columnIndex) {
+      int[] selection = batch.getSelection();
+      int numSelected = batch.getNumSelected();
+      double total = 0;
+
+      if (batch.getType(columnIndex) == DataType.Types.FLOAT) {
+        float[] column = batch.getFloats(columnIndex);
+        for (int i = 0; i < numSelected; i++) {
+          total += column[selection[i]];
+        }
+      } else {
+        int[] column = batch.getInts(columnIndex);
+        long intTotal = 0;
+        for (int i = 0; i < numSelected; i++) {
+          intTotal += column[selection[i]];
+        }
+        total = intTotal;
+      }
+
+      return total;
+    }
+
+    /**
+     * Adds the aggregates to output. An input that had all of its rows filtered out has no values
+     * for the selected columns, so the row is only added when nothing but aggregates is selected.
+     */
+    private void addAggregates(ColumnBatch output) {
+      List<DataType> values = this.baseValues;
+      if (values == null) {
+        values = new ArrayList<DataType>();
+      }
+
+      if (values.size() == SelectOperator.this.indices.size()) {
+        if (SelectOperator.this.hasCount) {
+          values.add(new IntDataType(this.count));
+        }
+
+        if (SelectOperator.this.sumColumnIndex != -1) {
+          if (SelectOperator.this.sumIsFloat) {
+            values.add(new FloatDataType((float) this.sum));
+          } else {
+            values.add(new IntDataType((int) this.sum));
+          }
+        }
+
+        if (SelectOperator.this.averageColumnIndex != -1) {
+          float average = this.count == 0 ? 0f : (float) (this.averageSum / this.count);
+          values.add(new FloatDataType(average));
+        }
+
+        output.addValues(values);
+      }
+    }
+  }
 }
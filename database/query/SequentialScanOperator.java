@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.query;
 
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
@@ -47,6 +48,14 @@ public class SequentialScanOperator extends QueryOperator {
     return this.transaction.getRecordIterator(tableName);
   }
 
+  public boolean supportsBatches() {
+    return true;
+  }
+
+  public Iterator<ColumnBatch> batchIterator() throws DatabaseException {
+    return new SequentialScanBatchIterator();
+  }
+
   public Schema computeSchema() throws QueryPlanException {
     try {
       return this.transaction.getFullyQualifiedSchema(this.tableName);
@@ -80,4 +89,36 @@ public class SequentialScanOperator extends QueryOperator {
       throw new QueryPlanException(de);
     }
   }
+
+  /**
+   * An implementation of Iterator that packs the records of the table into ColumnBatches.
+   */
+  private class SequentialScanBatchIterator implements Iterator<ColumnBatch> {
+    private Iterator<Record> sourceIterator;
+
+    public SequentialScanBatchIterator() throws DatabaseException {
+      this.sourceIterator = SequentialScanOperator.this.transaction.getRecordIterator(SequentialScanOperator.this.tableName);
+    }
+
+    public boolean hasNext() {
+      return this.sourceIterator.hasNext();
+    }
+
+    public ColumnBatch next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      // each batch gets its own dictionary so that a scan never holds more than a batch's strings
+      ColumnBatch batch = new ColumnBatch(SequentialScanOperator.this.getOutputSchema(),
+          new ColumnBatch.Dictionary());
+      while (!batch.isFull() && this.sourceIterator.hasNext()) {
+        batch.addRecord(this.sourceIterator.next());
+      }
+      return batch;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -0,0 +1,193 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+public class SortMergeOperator extends JoinOperator {
+
+    private int numBuffers;
+
+    public SortMergeOperator(QueryOperator leftSource,
+                             QueryOperator rightSource,
+                             String leftColumnName,
+                             String rightColumnName,
+                             Database.Transaction transaction) throws QueryPlanException, DatabaseException {
+        super(leftSource,
+                rightSource,
+                leftColumnName,
+                rightColumnName,
+                transaction,
+                JoinType.SORTMERGE);
+
+        this.numBuffers = transaction.getNumMemoryPages();
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+        return new SortMergeIterator();
+    }
+
+    /**
+     * Each input is read once by the merge, and is sorted first unless it is already ordered on
+     * its join column, for example by an IndexScanOperator.
+     */
+    public int estimateIOCost() throws QueryPlanException {
+        TableStats leftStats = this.getLeftSource().getStats();
+        TableStats rightStats = this.getRightSource().getStats();
+        int leftPages = leftStats.getNumPages();
+        int rightPages = rightStats.getNumPages();
+
+        int cost = leftPages + rightPages;
+        if (!this.isSorted(this.getLeftSource(), this.getLeftColumnName())) {
+            cost += SortOperator.estimateSortCost(leftPages, this.numBuffers);
+        }
+        if (!this.isSorted(this.getRightSource(), this.getRightColumnName())) {
+            cost += SortOperator.estimateSortCost(rightPages, this.numBuffers);
+        }
+        return cost;
+    }
+
+    /**
+     * @return true if source is ordered on columnName, whether either name is qualified or not
+     */
+    private boolean isSorted(QueryOperator source, String columnName) {
+        String sortColumn = source.getSortColumn();
+        if (sortColumn == null) {
+            return false;
+        }
+        return this.checkColumnNameEquality(columnName, sortColumn)
+                || this.checkColumnNameEquality(sortColumn, columnName);
+    }
+
+    /**
+     * @return an iterator of the records of source in order of columnName
+     */
+    private Iterator<Record> sortedIterator(QueryOperator source, String columnName) throws QueryPlanException, DatabaseException {
+        if (this.isSorted(source, columnName)) {
+            return source.iterator();
+        }
+        return new SortOperator(source, this.getTransaction(), columnName).iterator();
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     */
+    private class SortMergeIterator implements Iterator<Record> {
+        private Iterator<Record> leftIterator;
+        private Iterator<Record> rightIterator;
+        private Record leftRecord;
+        private Record rightRecord;
+        private Record nextRecord;
+        // the right records whose join value equals rightGroupValue
+        private List<Record> rightGroup;
+        private DataType rightGroupValue;
+        private int rightGroupIndex;
+
+        public SortMergeIterator() throws QueryPlanException, DatabaseException {
+            this.leftIterator = SortMergeOperator.this.sortedIterator(SortMergeOperator.this.getLeftSource(),
+                    SortMergeOperator.this.getLeftColumnName());
+            this.rightIterator = SortMergeOperator.this.sortedIterator(SortMergeOperator.this.getRightSource(),
+                    SortMergeOperator.this.getRightColumnName());
+            this.leftRecord = this.leftIterator.hasNext() ? this.leftIterator.next() : null;
+            this.rightRecord = this.rightIterator.hasNext() ? this.rightIterator.next() : null;
+            this.nextRecord = null;
+            this.rightGroup = null;
+            this.rightGroupValue = null;
+            this.rightGroupIndex = 0;
+        }
+
+        /**
+         * Checks if there are more record(s) to yield
+         *
+         * @return true if this iterator has another record to yield, otherwise false
+         */
+        public boolean hasNext() {
+            if (this.nextRecord != null) {
+                return true;
+            }
+
+            int leftIndex = SortMergeOperator.this.getLeftColumnIndex();
+            int rightIndex = SortMergeOperator.this.getRightColumnIndex();
+
+            while (this.leftRecord != null) {
+                DataType leftJoinValue = this.leftRecord.getValue(leftIndex);
+
+                // join the left record with the current group of right records
+                if (this.rightGroup != null && leftJoinValue.equals(this.rightGroupValue)) {
+                    if (this.rightGroupIndex < this.rightGroup.size()) {
+                        List<DataType> leftValues = new ArrayList<DataType>(this.leftRecord.getValues());
+                        leftValues.addAll(this.rightGroup.get(this.rightGroupIndex++).getValues());
+                        this.nextRecord = new Record(leftValues);
+                        return true;
+                    }
+                    this.advanceLeft();
+                    continue;
+                }
+
+                // otherwise skip the right records that are smaller than the left record
+                this.rightGroup = null;
+                while (this.rightRecord != null
+                        && this.rightRecord.getValue(rightIndex).compareTo(leftJoinValue) < 0) {
+                    this.advanceRight();
+                }
+                if (this.rightRecord == null) {
+                    return false;
+                }
+                if (this.rightRecord.getValue(rightIndex).compareTo(leftJoinValue) > 0) {
+                    this.advanceLeft();
+                    continue;
+                }
+
+                // and collect the right records equal to it
+                this.rightGroup = new ArrayList<Record>();
+                this.rightGroupValue = this.rightRecord.getValue(rightIndex);
+                while (this.rightRecord != null
+                        && this.rightRecord.getValue(rightIndex).equals(this.rightGroupValue)) {
+                    // copied so that the group does not refer to the pages of the right input
+                    this.rightGroup.add(new Record(this.rightRecord.getValues()));
+                    this.advanceRight();
+                }
+                this.rightGroupIndex = 0;
+            }
+
+            return false;
+        }
+
+        private void advanceLeft() {
+            this.leftRecord = this.leftIterator.hasNext() ? this.leftIterator.next() : null;
+            this.rightGroupIndex = 0;
+        }
+
+        private void advanceRight() {
+            this.rightRecord = this.rightIterator.hasNext() ? this.rightIterator.next() : null;
+        }
+
+        /**
+         * Yields the next record of this iterator.
+         *
+         * @return the next Record
+         * @throws NoSuchElementException if there are no more Records to yield
+         */
+        public Record next() {
+            if (this.hasNext()) {
+                Record r = this.nextRecord;
+                this.nextRecord = null;
+                return r;
+            }
+            throw new NoSuchElementException();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
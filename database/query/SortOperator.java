@@ -0,0 +1,265 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * Sorts the records of its source on a column with an external merge sort that uses the
+ * transaction's memory pages. Pass 0 sorts as many records as fit in memory at a time into runs
+ * written to temporary tables; each later pass merges up to numMemoryPages - 1 runs into one,
+ * and the last merge is done lazily as the records are read. If the whole input fits in memory
+ * it is sorted there and nothing is written.
+ */
+public class SortOperator extends QueryOperator {
+  private Database.Transaction transaction;
+  private String sortColumn;
+  private int sortColumnIndex;
+  private int numBuffers;
+  private int numRunTables;
+
+  /**
+   * Creates a new SortOperator that sorts the records of source on columnName.
+   *
+   * @param source the source operator of this operator
+   * @param transaction the transaction containing this operator
+   * @param columnName the column to sort on
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public SortOperator(QueryOperator source,
+                      Database.Transaction transaction,
+                      String columnName) throws QueryPlanException, DatabaseException {
+    super(OperatorType.SORT, source);
+    this.transaction = transaction;
+    this.sortColumn = this.checkSchemaForColumn(source.getOutputSchema(), columnName);
+    this.sortColumnIndex = this.getOutputSchema().getFieldNames().indexOf(this.sortColumn);
+    this.numBuffers = transaction.getNumMemoryPages();
+    this.numRunTables = 0;
+
+    this.stats = this.estimateStats();
+    this.cost = this.estimateIOCost();
+  }
+
+  public String getSortColumn() {
+    return this.sortColumn;
+  }
+
+  public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
+    return this.sort(this.getSource().execute());
+  }
+
+  public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+    return this.sort(this.getSource().iterator());
+  }
+
+  protected Schema computeSchema() throws QueryPlanException {
+    return this.getSource().getOutputSchema();
+  }
+
+  public String str() {
+    return "type: " + this.getType() +
+        "\ncolumn: " + this.sortColumn;
+  }
+
+  /**
+   * Estimates the table statistics for the result of executing this query operator.
+   *
+   * @return estimated TableStats
+   */
+  public TableStats estimateStats() throws QueryPlanException {
+    return this.getSource().getStats();
+  }
+
+  public int estimateIOCost() throws QueryPlanException {
+    return this.getSource().getIOCost()
+        + estimateSortCost(this.getSource().getStats().getNumPages(), this.numBuffers);
+  }
+
+  /**
+   * Estimates the IOs an external merge sort spends on top of reading its input: pass 0 writes
+   * every page, each merge pass but the last reads and writes every page, and the last merge
+   * reads every page. That is 2 * numPages * the number of merge passes, or nothing if the input
+   * fits in memory.
+   *
+   * @param numPages the number of pages of the input
+   * @param numBuffers the number of memory pages available to the sort
+   * @return the estimated number of IOs
+   */
+  public static int estimateSortCost(int numPages, int numBuffers) {
+    if (numPages <= numBuffers) {
+      return 0;
+    }
+    int fanIn = Math.max(2, numBuffers - 1);
+    int runs = (int) Math.ceil((double) numPages / numBuffers);
+    int mergePasses = 0;
+    while (runs > 1) {
+      runs = (runs + fanIn - 1) / fanIn;
+      mergePasses++;
+    }
+    return 2 * numPages * mergePasses;
+  }
+
+  private Comparator<Record> comparator() {
+    final int column = this.sortColumnIndex;
+    return new Comparator<Record>() {
+      public int compare(Record a, Record b) {
+        return a.getValue(column).compareTo(b.getValue(column));
+      }
+    };
+  }
+
+  /**
+   * Sorts the records of input.
+   *
+   * @param input the records to sort
+   * @return an iterator of the records of input in sorted order
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  private Iterator<Record> sort(Iterator<Record> input) throws QueryPlanException, DatabaseException {
+    Schema schema = this.getOutputSchema();
+    int maxRecordsInMemory = Math.max(1, this.numBuffers * Page.pageSize / schema.getEntrySize());
+    Comparator<Record> comparator = this.comparator();
+
+    // pass 0: sort memory-sized chunks of the input into runs
+    List<String> runs = new ArrayList<String>();
+    List<Record> chunk = new ArrayList<Record>();
+    while (input.hasNext()) {
+      // copy the record so that it does not refer to a page once it is in memory
+      chunk.add(new Record(input.next().getValues()));
+      if (chunk.size() == maxRecordsInMemory && input.hasNext()) {
+        Collections.sort(chunk, comparator);
+        runs.add(this.writeRun(chunk.iterator()));
+        chunk.clear();
+      }
+    }
+
+    Collections.sort(chunk, comparator);
+    if (runs.isEmpty()) {
+      return chunk.iterator();
+    }
+    runs.add(this.writeRun(chunk.iterator()));
+    chunk = null;
+
+    // merge passes: merge groups of runs until one merge can finish the sort
+    int fanIn = Math.max(2, this.numBuffers - 1);
+    while (runs.size() > fanIn) {
+      List<String> merged = new ArrayList<String>();
+      for (int i = 0; i < runs.size(); i += fanIn) {
+        List<String> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+        if (group.size() == 1) {
+          merged.add(group.get(0));
+          continue;
+        }
+        merged.add(this.writeRun(new MergeIterator(new ArrayList<String>(group))));
+      }
+      runs = merged;
+    }
+
+    return new MergeIterator(runs);
+  }
+
+  private String writeRun(Iterator<Record> records) throws DatabaseException {
+    String tableName = "Temp" + this.sortColumn + "SortRun" + this.numRunTables++;
+    this.transaction.createTempTable(this.getOutputSchema(), tableName);
+    while (records.hasNext()) {
+      this.transaction.addRecord(tableName, records.next().getValues());
+    }
+    return tableName;
+  }
+
+  /**
+   * An implementation of Iterator that merges sorted runs, deleting them once they have been
+   * read.
+   */
+  private class MergeIterator implements Iterator<Record> {
+    private List<String> runs;
+    private PriorityQueue<RunHead> heads;
+
+    public MergeIterator(List<String> runs) throws DatabaseException {
+      this.runs = runs;
+      this.heads = new PriorityQueue<RunHead>(Math.max(1, runs.size()), new Comparator<RunHead>() {
+        private Comparator<Record> records = SortOperator.this.comparator();
+
+        public int compare(RunHead a, RunHead b) {
+          int cmp = this.records.compare(a.record, b.record);
+          // ties go to the earlier run, so that equal records keep their order
+          return cmp != 0 ? cmp : Integer.compare(a.run, b.run);
+        }
+      });
+
+      for (int i = 0; i < runs.size(); i++) {
+        Iterator<Record> run = SortOperator.this.transaction.getRecordIterator(runs.get(i));
+        if (run.hasNext()) {
+          this.heads.add(new RunHead(i, run.next(), run));
+        }
+      }
+    }
+
+    /**
+     * Checks if there are more record(s) to yield
+     *
+     * @return true if this iterator has another record to yield, otherwise false
+     */
+    public boolean hasNext() {
+      if (this.heads.isEmpty() && this.runs != null) {
+        for (String run : this.runs) {
+          SortOperator.this.transaction.deleteTempTable(run);
+        }
+        this.runs = null;
+      }
+      return !this.heads.isEmpty();
+    }
+
+    /**
+     * Yields the next record of this iterator.
+     *
+     * @return the next Record
+     * @throws NoSuchElementException if there are no more Records to yield
+     */
+    public Record next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      RunHead head = this.heads.poll();
+      // the run may be deleted before the caller reads the record, so it is copied off its page
+      Record record = new Record(head.record.getValues());
+      if (head.iterator.hasNext()) {
+        head.record = head.iterator.next();
+        this.heads.add(head);
+      }
+      return record;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * The next record of a run being merged.
+   */
+  private static class RunHead {
+    private int run;
+    private Record record;
+    private Iterator<Record> iterator;
+
+    RunHead(int run, Record record, Iterator<Record> iterator) {
+      this.run = run;
+      this.record = record;
+      this.iterator = iterator;
+    }
+  }
+}
@@ -1,9 +1,10 @@
 package edu.berkeley.cs186.database.query;
 
 import java.util.ArrayList;
-import java.util.NoSuchElementException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.datatypes.DataType;
@@ -13,10 +14,11 @@ import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 public class WhereOperator extends QueryOperator {
-  private int columnIndex;
-  private String columnName;
-  private QueryPlan.PredicateOperator predicate;
-  private DataType value;
+  private List<Integer> columnIndices;
+  private List<String> columnNames;
+  private List<QueryPlan.PredicateOperator> predicates;
+  private List<DataType> values;
+  private CompiledPredicate compiled;
 
   /**
    * Creates a new WhereOperator that pulls from source and only returns tuples for which the
@@ -32,88 +34,80 @@ public class WhereOperator extends QueryOperator {
                        String columnName,
                        QueryPlan.PredicateOperator predicate,
                        DataType value) throws QueryPlanException {
+    this(source, Arrays.asList(columnName), Arrays.asList(predicate), Arrays.asList(value));
+  }
+
+  /**
+   * Creates a new WhereOperator that pulls from source and only returns tuples for which every
+   * one of the predicates is satisfied. The i-th predicate compares column columnNames[i] with
+   * values[i] using predicates[i]. The predicates are compiled into a single evaluator for the
+   * types of their columns.
+   *
+   * @param source the source of this operator
+   * @param columnNames the names of the columns to evaluate the predicates on
+   * @param predicates the actual comparators
+   * @param values the values to compare against
+   * @throws QueryPlanException
+   */
+  public WhereOperator(QueryOperator source,
+                       List<String> columnNames,
+                       List<QueryPlan.PredicateOperator> predicates,
+                       List<DataType> values) throws QueryPlanException {
     super(OperatorType.WHERE, source);
-    this.predicate = predicate;
-    this.value = value;
+    if (columnNames.isEmpty() || columnNames.size() != predicates.size()
+        || columnNames.size() != values.size()) {
+      throw new QueryPlanException("Each WHERE predicate needs one column, comparator and value.");
+    }
 
-    this.columnName = this.checkSchemaForColumn(source.getOutputSchema(), columnName);
-    this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(this.columnName);
+    this.columnIndices = new ArrayList<Integer>();
+    this.columnNames = new ArrayList<String>();
+    this.predicates = new ArrayList<QueryPlan.PredicateOperator>(predicates);
+    this.values = new ArrayList<DataType>(values);
+
+    Schema schema = this.getOutputSchema();
+    List<CompiledPredicate> compiled = new ArrayList<CompiledPredicate>();
+    for (int i = 0; i < columnNames.size(); i++) {
+      String columnName = this.checkSchemaForColumn(schema, columnNames.get(i));
+      int columnIndex = schema.getFieldNames().indexOf(columnName);
+
+      this.columnNames.add(columnName);
+      this.columnIndices.add(columnIndex);
+      compiled.add(CompiledPredicate.compile(columnIndex, schema.getFieldTypes().get(columnIndex),
+          predicates.get(i), values.get(i)));
+    }
+    this.compiled = CompiledPredicate.and(compiled);
 
     this.stats = this.estimateStats();
     this.cost = this.estimateIOCost();
   }
 
+  /**
+   * Filters the records of source as they are read, without collecting the passing records.
+   *
+   * @return an iterator of records
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
   public Iterator<Record> execute() throws QueryPlanException, DatabaseException {
-    Iterator<Record> sourceIterator = this.getSource().execute();
-    List<Record> validRecords = new ArrayList<Record>();
-    MarkerRecord markerRecord = MarkerRecord.getMarker();
-
-    while (sourceIterator.hasNext()) {
-      Record r = sourceIterator.next();
-
-      if (r == markerRecord) {
-        validRecords.add(r);
-      } else {
-
-        switch (this.predicate) {
-          case EQUALS:
-            if (r.getValues().get(this.columnIndex).equals(value)) {
-              validRecords.add(r);
-            }
-            break;
-
-          case NOT_EQUALS:
-            if (!r.getValues().get(this.columnIndex).equals(value)) {
-              validRecords.add(r);
-            }
-            break;
-
-          case LESS_THAN:
-            if (r.getValues().get(this.columnIndex).compareTo(value) == -1) {
-              validRecords.add(r);
-            }
-            break;
-
-          case LESS_THAN_EQUALS:
-            if (r.getValues().get(this.columnIndex).compareTo(value) == -1) {
-              validRecords.add(r);
-            } else if (r.getValues().get(this.columnIndex).compareTo(value) == 0) {
-              validRecords.add(r);
-            }
-            break;
-          case GREATER_THAN:
-            if (r.getValues().get(this.columnIndex).compareTo(value) == 1) {
-              validRecords.add(r);
-            }
-            break;
-
-          case GREATER_THAN_EQUALS:
-            if (r.getValues().get(this.columnIndex).compareTo(value) == 1) {
-              validRecords.add(r);
-            } else if (r.getValues().get(this.columnIndex).compareTo(value) == 0) {
-              validRecords.add(r);
-            }
-            break;
-
-          default:
-            break;
-        }
-      }
-
-    }
-
-    return validRecords.iterator();
+    return new WhereIterator(this.getSource().execute());
   }
 
   public Schema computeSchema() throws QueryPlanException {
     return this.getSource().getOutputSchema();
   }
 
+  public String getSortColumn() {
+    return this.source.getSortColumn();
+  }
+
   public String str() {
-    return "type: " + this.getType() +
-        "\ncolumn: " + this.columnName +
-        "\npredicate: " + this.predicate +
-        "\nvalue: " + this.value;
+    String r = "type: " + this.getType();
+    for (int i = 0; i < this.columnNames.size(); i++) {
+      r += "\ncolumn: " + this.columnNames.get(i) +
+          "\npredicate: " + this.predicates.get(i) +
+          "\nvalue: " + this.values.get(i);
+    }
+    return r;
   }
 
   /**
@@ -123,16 +117,29 @@ public class WhereOperator extends QueryOperator {
    */
   public TableStats estimateStats() throws QueryPlanException {
     TableStats stats = this.source.getStats();
-    return stats.copyWithPredicate(this.columnIndex,
-                                   this.predicate,
-                                   this.value);
+    for (int i = 0; i < this.columnIndices.size(); i++) {
+      stats = stats.copyWithPredicate(this.columnIndices.get(i),
+                                      this.predicates.get(i),
+                                      this.values.get(i));
+    }
+    return stats;
   }
 
   public int estimateIOCost() throws QueryPlanException {
     return this.getSource().getIOCost();
   }
 
-  public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new WhereIterator(); }
+  public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+    return new WhereIterator(this.getSource().iterator());
+  }
+
+  public boolean supportsBatches() {
+    return this.source.supportsBatches();
+  }
+
+  public Iterator<ColumnBatch> batchIterator() throws QueryPlanException, DatabaseException {
+    return new WhereBatchIterator();
+  }
 
   /**
    * An implementation of Iterator that provides an iterator interface for this operator.
@@ -142,8 +149,8 @@ public class WhereOperator extends QueryOperator {
     private MarkerRecord markerRecord;
     private Record nextRecord;
 
-    public WhereIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = WhereOperator.this.getSource().iterator();
+    public WhereIterator(Iterator<Record> sourceIterator) {
+      this.sourceIterator = sourceIterator;
       this.markerRecord = MarkerRecord.getMarker();
       this.nextRecord = null;
     }
@@ -165,51 +172,9 @@ public class WhereOperator extends QueryOperator {
           return true;
         }
 
-        switch (WhereOperator.this.predicate) {
-          case EQUALS:
-            if (r.getValues().get(WhereOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case NOT_EQUALS:
-            if (!r.getValues().get(WhereOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN:
-            if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN_EQUALS:
-            if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN:
-            if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN_EQUALS:
-            if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(WhereOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          default:
-            break;
+        if (WhereOperator.this.compiled.test(r)) {
+          this.nextRecord = r;
+          return true;
         }
       }
 
@@ -235,4 +200,42 @@ public class WhereOperator extends QueryOperator {
       throw new UnsupportedOperationException();
     }
   }
+
+  /**
+   * An implementation of Iterator that filters the batches of the source operator.
+   */
+  private class WhereBatchIterator implements Iterator<ColumnBatch> {
+    private Iterator<ColumnBatch> sourceIterator;
+    private ColumnBatch nextBatch;
+
+    public WhereBatchIterator() throws QueryPlanException, DatabaseException {
+      this.sourceIterator = WhereOperator.this.getSource().batchIterator();
+      this.nextBatch = null;
+    }
+
+    public boolean hasNext() {
+      while (this.nextBatch == null && this.sourceIterator.hasNext()) {
+        ColumnBatch batch = this.sourceIterator.next();
+        WhereOperator.this.compiled.filter(batch);
+        // batches with every row filtered out are dropped
+        if (batch.getNumSelected() > 0) {
+          this.nextBatch = batch;
+        }
+      }
+      return this.nextBatch != null;
+    }
+
+    public ColumnBatch next() {
+      if (this.hasNext()) {
+        ColumnBatch batch = this.nextBatch;
+        this.nextBatch = null;
+        return batch;
+      }
+      throw new NoSuchElementException();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
 }
@@ -0,0 +1,104 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.datatypes.BoolDataType;
+import edu.berkeley.cs186.database.datatypes.DataType;
+import edu.berkeley.cs186.database.datatypes.FloatDataType;
+import edu.berkeley.cs186.database.datatypes.IntDataType;
+import edu.berkeley.cs186.database.datatypes.StringDataType;
+import edu.berkeley.cs186.database.io.Page;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Record that is a view of a fixed-width record on a page. A field is only decoded, straight
+ * from the page, the first time it is read, so reading one column of a record does not copy the
+ * record or decode its other columns.
+ *
+ * A LazyRecord reflects the page as it is when each field is first read, so it should only be
+ * used while the record's slot is not being modified, such as while scanning a table. Use
+ * getValues or a plain Record to keep the values around.
+ */
+public class LazyRecord extends Record {
+  private Page page;
+  private int offset;
+  private Schema schema;
+  private DataType[] decoded;
+
+  /**
+   * @param page the page holding the record
+   * @param offset the offset of the record in the page
+   * @param schema the schema the record was encoded with
+   */
+  public LazyRecord(Page page, int offset, Schema schema) {
+    super(null);
+    this.page = page;
+    this.offset = offset;
+    this.schema = schema;
+    this.decoded = new DataType[schema.getFieldTypes().size()];
+  }
+
+  @Override
+  public DataType getValue(int i) {
+    DataType value = this.decoded[i];
+    if (value == null) {
+      value = decodeField(i);
+      this.decoded[i] = value;
+    }
+    return value;
+  }
+
+  @Override
+  public List<DataType> getValues() {
+    for (int i = 0; i < this.decoded.length; i++) {
+      getValue(i);
+    }
+    return Arrays.asList(this.decoded);
+  }
+
+  @Override
+  public int size() {
+    return this.decoded.length;
+  }
+
+  /**
+   * Reads integer field i straight from the page, without decoding it into a DataType.
+   *
+   * @param i the index of the column
+   * @return the value of column i
+   */
+  public int readInt(int i) {
+    return this.page.readInt(this.offset + this.schema.getFieldOffset(i));
+  }
+
+  public float readFloat(int i) {
+    return Float.intBitsToFloat(this.readInt(i));
+  }
+
+  public boolean readBool(int i) {
+    return this.page.readByte(this.offset + this.schema.getFieldOffset(i)) != 0;
+  }
+
+  public String readString(int i) {
+    int size = this.schema.getFieldTypes().get(i).getSize();
+    return new String(this.page.readBytes(this.offset + this.schema.getFieldOffset(i), size),
+        StandardCharsets.UTF_8);
+  }
+
+  private DataType decodeField(int i) {
+    DataType field = this.schema.getFieldTypes().get(i);
+    switch (field.type()) {
+      case INT:
+        return new IntDataType(this.readInt(i));
+      case FLOAT:
+        return new FloatDataType(this.readFloat(i));
+      case BOOL:
+        return new BoolDataType(this.readBool(i));
+      case STRING:
+      default:
+        return new StringDataType(this.page.readBytes(this.offset + this.schema.getFieldOffset(i),
+            field.getSize()));
+    }
+  }
+}
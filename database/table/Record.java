@@ -19,6 +19,21 @@ public class Record {
     return this.values;
   }
 
+  /**
+   * @param i the index of the column
+   * @return the value of column i
+   */
+  public DataType getValue(int i) {
+    return this.getValues().get(i);
+  }
+
+  /**
+   * @return the number of values in this record
+   */
+  public int size() {
+    return this.getValues().size();
+  }
+
   @Override
   public boolean equals(Object other) {
     if (!(other instanceof Record)) {
@@ -27,12 +42,12 @@ public class Record {
 
     Record otherRecord = (Record) other;
 
-    if (values.size() != otherRecord.values.size()) {
+    if (this.size() != otherRecord.size()) {
       return false;
     }
 
-    for (int i = 0; i < values.size(); i++) {
-      if (!(values.get(i).equals(otherRecord.values.get(i)))) {
+    for (int i = 0; i < this.size(); i++) {
+      if (!(this.getValue(i).equals(otherRecord.getValue(i)))) {
         return false;
       }
     }
@@ -43,7 +58,7 @@ public class Record {
   @Override
   public String toString() {
     StringBuilder s = new StringBuilder();
-    for (DataType d : values) {
+    for (DataType d : this.getValues()) {
       s.append(d.toString().trim());
       s.append(", ");
     }
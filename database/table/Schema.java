@@ -20,6 +20,7 @@ public class Schema {
   private List<String> fields;
   private List<DataType> fieldTypes;
   private int size;
+  private int[] fieldOffsets;
 
   public Schema(List<String> fields, List<DataType> fieldTypes) {
     assert(fields.size() == fieldTypes.size());
@@ -27,9 +28,11 @@ public class Schema {
     this.fields = fields;
     this.fieldTypes = fieldTypes;
     this.size = 0;
+    this.fieldOffsets = new int[fieldTypes.size()];
 
-    for (DataType dt : fieldTypes) {
-      this.size += dt.getSize();
+    for (int i = 0; i < fieldTypes.size(); i++) {
+      this.fieldOffsets[i] = this.size;
+      this.size += fieldTypes.get(i).getSize();
     }
   }
 
@@ -109,6 +112,113 @@ public class Schema {
     return new Record(values);
   }
 
+  /**
+   * Serializes the provided record into the variable-length format used by slotted pages. Fields
+   * other than strings are serialized as in encode; a string is serialized as a 2-byte length
+   * followed by its UTF-8 bytes with the padding spaces stripped. This method assumes that the
+   * input record corresponds to this schema.
+   *
+   * @param record the record to encode
+   * @return the encoded record as a byte[]
+   */
+  public byte[] encodeVariable(Record record) {
+    List<DataType> values = record.getValues();
+    byte[][] fieldBytes = new byte[values.size()][];
+    int length = 0;
+    for (int i = 0; i < values.size(); i++) {
+      byte[] bytes = values.get(i).getBytes();
+      if (this.fieldTypes.get(i).type() == DataType.Types.STRING) {
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] == ' ') {
+          end--;
+        }
+        bytes = Arrays.copyOf(bytes, end);
+        length += 2;
+      }
+      fieldBytes[i] = bytes;
+      length += bytes.length;
+    }
+
+    ByteBuffer bb = ByteBuffer.allocate(length);
+    for (int i = 0; i < fieldBytes.length; i++) {
+      if (this.fieldTypes.get(i).type() == DataType.Types.STRING) {
+        bb.putShort((short) fieldBytes[i].length);
+      }
+      bb.put(fieldBytes[i]);
+    }
+    return bb.array();
+  }
+
+  /**
+   * Takes a byte[] in the format produced by encodeVariable and decodes it into a Record, padding
+   * strings back out to their declared size.
+   *
+   * @param input the byte array to decode
+   * @return the decoded Record
+   */
+  public Record decodeVariable(byte[] input) {
+    List<DataType> values = new ArrayList<DataType>();
+    ByteBuffer bb = ByteBuffer.wrap(input);
+    for (DataType field : fieldTypes) {
+      int length = field.getSize();
+      byte[] bytes = new byte[length];
+      if (field.type() == DataType.Types.STRING) {
+        int stored = bb.getShort();
+        bb.get(bytes, 0, stored);
+        Arrays.fill(bytes, stored, length, (byte) ' ');
+        values.add(new StringDataType(bytes));
+        continue;
+      }
+      bb.get(bytes);
+      if (field.type() == DataType.Types.INT) {
+        values.add(new IntDataType(bytes));
+      }
+      if (field.type() == DataType.Types.BOOL) {
+        values.add(new BoolDataType(bytes));
+      }
+      if (field.type() == DataType.Types.FLOAT) {
+        values.add(new FloatDataType(bytes));
+      }
+    }
+    return new Record(values);
+  }
+
+  /**
+   * @return the largest size (in bytes) of a record encoded with encodeVariable
+   */
+  public int getMaxVariableEntrySize() {
+    return this.size + 2 * this.numStringFields();
+  }
+
+  /**
+   * @return the smallest size (in bytes) of a record encoded with encodeVariable
+   */
+  public int getMinVariableEntrySize() {
+    int min = 0;
+    for (DataType dt : this.fieldTypes) {
+      min += dt.type() == DataType.Types.STRING ? 2 : dt.getSize();
+    }
+    return min;
+  }
+
+  private int numStringFields() {
+    int count = 0;
+    for (DataType dt : this.fieldTypes) {
+      if (dt.type() == DataType.Types.STRING) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param i the index of the column
+   * @return the offset of column i in a record encoded with encode
+   */
+  public int getFieldOffset(int i) {
+    return this.fieldOffsets[i];
+  }
+
   public int getEntrySize() {
     return this.size;
   }
@@ -0,0 +1,108 @@
+package edu.berkeley.cs186.database.table;
+
+/**
+ * A slot bitmap as stored in page headers, where slot i is bit 7 - (i % 8) of byte i / 8, that is
+ * scanned a word at a time. The bytes are packed big-endian into longs, so slot i is bit
+ * 63 - (i % 64) of word i / 64, and finding the next set or clear slot or counting the set slots
+ * costs one Long.numberOfLeadingZeros or Long.bitCount per 64 slots.
+ *
+ * Properties:
+ * `words`: the bitmap packed into longs
+ * `numSlots`: the number of slots in the bitmap
+ */
+public class SlotBitmap {
+  private long[] words;
+  private int numSlots;
+
+  /**
+   * Creates a SlotBitmap from the bytes of a page header bitmap.
+   *
+   * @param bitmap the bitmap bytes
+   */
+  public SlotBitmap(byte[] bitmap) {
+    this.numSlots = bitmap.length * 8;
+    this.words = new long[(bitmap.length + 7) / 8];
+    for (int i = 0; i < bitmap.length; i++) {
+      this.words[i >>> 3] |= (bitmap[i] & 0xFFL) << (56 - 8 * (i & 7));
+    }
+  }
+
+  public int getNumSlots() {
+    return this.numSlots;
+  }
+
+  public boolean get(int slot) {
+    return (this.words[slot >>> 6] & (Long.MIN_VALUE >>> slot)) != 0;
+  }
+
+  public void set(int slot, boolean value) {
+    if (value) {
+      this.words[slot >>> 6] |= Long.MIN_VALUE >>> slot;
+    } else {
+      this.words[slot >>> 6] &= ~(Long.MIN_VALUE >>> slot);
+    }
+  }
+
+  /**
+   * @param start the first slot to check
+   * @return the first set slot at or after start, or -1 if there is none
+   */
+  public int nextSetSlot(int start) {
+    if (start >= this.numSlots) {
+      return -1;
+    }
+    int w = start >>> 6;
+    // shifting a long only uses the low 6 bits of the distance, so this keeps bits start % 64 on
+    long word = this.words[w] & (-1L >>> start);
+    while (word == 0) {
+      if (++w == this.words.length) {
+        return -1;
+      }
+      word = this.words[w];
+    }
+    return (w << 6) + Long.numberOfLeadingZeros(word);
+  }
+
+  /**
+   * @param start the first slot to check
+   * @return the first clear slot at or after start, or -1 if there is none
+   */
+  public int nextClearSlot(int start) {
+    if (start >= this.numSlots) {
+      return -1;
+    }
+    int w = start >>> 6;
+    long word = ~this.words[w] & (-1L >>> start);
+    while (word == 0) {
+      if (++w == this.words.length) {
+        return -1;
+      }
+      word = ~this.words[w];
+    }
+    int slot = (w << 6) + Long.numberOfLeadingZeros(word);
+    // the last word may be padded past the end of the bitmap
+    return slot < this.numSlots ? slot : -1;
+  }
+
+  /**
+   * @return the number of set slots
+   */
+  public int cardinality() {
+    int count = 0;
+    for (long word : this.words) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  /**
+   * @return the bitmap as page header bytes
+   */
+  public byte[] toBytes() {
+    byte[] bitmap = new byte[this.numSlots / 8];
+    for (int i = 0; i < bitmap.length; i++) {
+      bitmap[i] = (byte) (this.words[i >>> 3] >>> (56 - 8 * (i & 7)));
+    }
+    return bitmap;
+  }
+}
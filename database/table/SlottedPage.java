@@ -0,0 +1,335 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.io.Page;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The layout of a data page of a table stored in the SLOTTED record format. A slotted page starts
+ * with the same slot bitmap as a fixed-width page, followed by the number of slot directory entries,
+ * the offset where record data starts, and the slot directory itself. Records are variable-length
+ * and packed from the end of the page towards the directory.
+ *
+ * A slot directory entry holds the offset and length of its record. A record that no longer fits
+ * on its page after an update is moved to another page: its original slot then holds a forwarding
+ * entry with the RecordID of its new location, and the new slot is flagged as moved so that scans
+ * yield the record there and skip the forwarding entry, keeping RecordIDs stable.
+ *
+ * Properties:
+ * `bitmapSize`: physical size (in bytes) of the slot bitmap
+ * `numSlots`: maximum number of slots a page can have
+ */
+class SlottedPage {
+  private static final int FORWARD = 0x8000;
+  private static final int MOVED = 0x4000;
+  private static final int LENGTH_MASK = 0x1FFF;
+  // every record takes at least this much space so that it can be replaced by a forwarding entry
+  private static final int MIN_RECORD_SIZE = 8;
+
+  private int bitmapSize;
+  private int numSlots;
+
+  public SlottedPage(int bitmapSize, int numSlots) {
+    this.bitmapSize = bitmapSize;
+    this.numSlots = numSlots;
+  }
+
+  /**
+   * Computes the slot bitmap size for slotted pages of a schema, sized so that the page could be
+   * filled with records of the smallest possible size. Like the fixed-width layout, the number of
+   * slots is a multiple of 8.
+   *
+   * @param schema the schema of the table
+   * @return the size (in bytes) of the slot bitmap; the number of slots is 8 times this
+   */
+  public static int computeBitmapSize(Schema schema) {
+    int minRecord = Math.max(MIN_RECORD_SIZE, schema.getMinVariableEntrySize());
+    return (Page.pageSize - 8) / ((minRecord + 4) * 8 + 1);
+  }
+
+  /**
+   * @param maxRecordSize the largest encoded record of the table
+   * @return the free space a page needs to be guaranteed to fit one more record
+   */
+  public static int spaceForRecord(int maxRecordSize) {
+    return Math.max(MIN_RECORD_SIZE, maxRecordSize) + 4;
+  }
+
+  /**
+   * Stores a record in a free slot of the page, compacting the page if its free space is
+   * fragmented.
+   *
+   * @param page the page to insert into
+   * @param record the encoded record
+   * @param moved whether the record was moved here from a forwarding slot
+   * @return the slot number of the record, or -1 if it does not fit
+   */
+  public int insert(Page page, byte[] record, boolean moved) {
+    int numEntries = getNumEntries(page);
+    int slot = -1;
+    for (int i = 0; i < numEntries; i++) {
+      if (!isSlotUsed(page, i)) {
+        slot = i;
+        break;
+      }
+    }
+    if (slot == -1) {
+      if (numEntries == this.numSlots) {
+        return -1;
+      }
+      slot = numEntries;
+    }
+    // a new slot grows the directory by one entry, which makeRoom accounts for
+    if (!makeRoom(page, storedLength(record.length), slot == numEntries ? numEntries + 1 : numEntries)) {
+      return -1;
+    }
+    if (slot == numEntries) {
+      setNumEntries(page, numEntries + 1);
+    }
+    writeRecord(page, slot, record, moved ? MOVED : 0);
+    setSlotUsed(page, slot, true);
+    return slot;
+  }
+
+  /**
+   * Replaces the record in slot with a new one, keeping the slot's moved flag.
+   *
+   * @param page the page holding the record
+   * @param slot the slot of the record
+   * @param record the new encoded record
+   * @return whether the new record fit on the page
+   */
+  public boolean update(Page page, int slot, byte[] record) {
+    int entry = getEntry(page, slot);
+    int flags = entry & MOVED;
+    int oldStored = storedLength(entry & LENGTH_MASK);
+    if (storedLength(record.length) <= oldStored) {
+      page.writeBytes(entryOffset(entry), record.length, record);
+      setEntry(page, slot, (entryOffset(entry) << 16) | flags | record.length);
+      return true;
+    }
+
+    // give up the old space first so that compaction can reuse it
+    setEntry(page, slot, 0);
+    if (!makeRoom(page, storedLength(record.length), getNumEntries(page))) {
+      // makeRoom only compacts when that is enough, so the old bytes have not been touched
+      setEntry(page, slot, entry);
+      return false;
+    }
+    writeRecord(page, slot, record, flags);
+    return true;
+  }
+
+  /**
+   * Turns slot into a forwarding entry pointing at target. The forwarding entry is never larger
+   * than the record it replaces, so this always succeeds.
+   *
+   * @param page the page holding the slot
+   * @param slot the slot to turn into a forwarding entry
+   * @param target the RecordID of the record's new location
+   */
+  public void forward(Page page, int slot, RecordID target) {
+    int entry = getEntry(page, slot);
+    byte[] stub = ByteBuffer.allocate(8).putInt(target.getPageNum()).putInt(target.getSlotNumber()).array();
+    page.writeBytes(entryOffset(entry), stub.length, stub);
+    setEntry(page, slot, (entryOffset(entry) << 16) | FORWARD | stub.length);
+  }
+
+  /**
+   * Frees slot.
+   *
+   * @param page the page holding the slot
+   * @param slot the slot to free
+   */
+  public void delete(Page page, int slot) {
+    setEntry(page, slot, 0);
+    setSlotUsed(page, slot, false);
+    int numEntries = getNumEntries(page);
+    while (numEntries > 0 && !isSlotUsed(page, numEntries - 1)) {
+      numEntries--;
+    }
+    setNumEntries(page, numEntries);
+  }
+
+  public byte[] read(Page page, int slot) {
+    int entry = getEntry(page, slot);
+    return page.readBytes(entryOffset(entry), entry & LENGTH_MASK);
+  }
+
+  public boolean isSlotUsed(Page page, int slot) {
+    byte b = page.readByte(slot / 8);
+    return (b & (1 << (7 - slot % 8))) != 0;
+  }
+
+  public boolean isForward(Page page, int slot) {
+    return (getEntry(page, slot) & FORWARD) != 0;
+  }
+
+  public boolean isMoved(Page page, int slot) {
+    return (getEntry(page, slot) & MOVED) != 0;
+  }
+
+  /**
+   * @param page a page with a forwarding entry in slot
+   * @param slot the forwarding slot
+   * @return the RecordID the forwarding entry points to
+   */
+  public RecordID readForward(Page page, int slot) {
+    ByteBuffer bb = ByteBuffer.wrap(read(page, slot));
+    int pageNum = bb.getInt();
+    int slotNum = bb.getInt();
+    return new RecordID(pageNum, slotNum);
+  }
+
+  /**
+   * Builds the bitmap of slots a scan should yield records from: every used slot except
+   * forwarding entries, whose records are yielded from the slots they were moved to.
+   *
+   * @param page the page to read from
+   * @return the slot bitmap of records to scan
+   */
+  public byte[] readScanBitmap(Page page) {
+    byte[] bitmap = page.readBytes(0, this.bitmapSize);
+    int numEntries = getNumEntries(page);
+    for (int slot = 0; slot < numEntries; slot++) {
+      if ((bitmap[slot / 8] & (1 << (7 - slot % 8))) != 0 && isForward(page, slot)) {
+        bitmap[slot / 8] &= (byte) ~(1 << (7 - slot % 8));
+      }
+    }
+    return bitmap;
+  }
+
+  /**
+   * @param page the page to check
+   * @param maxRecordSize the largest encoded record of the table
+   * @return whether any record of the table is guaranteed to fit on the page
+   */
+  public boolean hasSpaceFor(Page page, int maxRecordSize) {
+    int numEntries = getNumEntries(page);
+    boolean freeSlot = numEntries < this.numSlots;
+    for (int i = 0; i < numEntries && !freeSlot; i++) {
+      freeSlot = !isSlotUsed(page, i);
+    }
+    return freeSlot && freeBytes(page, numEntries) >= spaceForRecord(maxRecordSize);
+  }
+
+  /**
+   * Makes sure that needed bytes of contiguous free space are available between the slot
+   * directory, grown to numEntries entries, and the record data, compacting the page if needed.
+   */
+  private boolean makeRoom(Page page, int needed, int numEntries) {
+    int directoryEnd = entryPosition(numEntries);
+    if (getDataStart(page) - directoryEnd >= needed) {
+      return true;
+    }
+    if (freeBytes(page, numEntries) < needed) {
+      return false;
+    }
+    compact(page);
+    return getDataStart(page) - directoryEnd >= needed;
+  }
+
+  /**
+   * @return the total free bytes on the page, counting the holes left by deleted and shrunk
+   *         records, once the slot directory has numEntries entries
+   */
+  private int freeBytes(Page page, int numEntries) {
+    int used = 0;
+    for (int i = 0; i < getNumEntries(page); i++) {
+      int entry = getEntry(page, i);
+      if (entry != 0) {
+        used += storedLength(entry & LENGTH_MASK);
+      }
+    }
+    return Page.pageSize - entryPosition(numEntries) - used;
+  }
+
+  /**
+   * Packs all records against the end of the page, leaving the free space in one piece.
+   */
+  private void compact(Page page) {
+    int numEntries = getNumEntries(page);
+    List<Integer> slots = new ArrayList<Integer>();
+    for (int i = 0; i < numEntries; i++) {
+      if (getEntry(page, i) != 0) {
+        slots.add(i);
+      }
+    }
+    final int[] entries = new int[numEntries];
+    for (int slot : slots) {
+      entries[slot] = getEntry(page, slot);
+    }
+    // moving records in order of decreasing offset never overwrites a record not yet moved
+    Collections.sort(slots, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Integer.compare(entryOffset(entries[b]), entryOffset(entries[a]));
+      }
+    });
+
+    int dataStart = Page.pageSize;
+    for (int slot : slots) {
+      int entry = entries[slot];
+      int length = entry & LENGTH_MASK;
+      byte[] bytes = page.readBytes(entryOffset(entry), length);
+      dataStart -= storedLength(length);
+      page.writeBytes(dataStart, length, bytes);
+      setEntry(page, slot, (dataStart << 16) | (entry & 0xFFFF));
+    }
+    setDataStart(page, dataStart);
+  }
+
+  private void writeRecord(Page page, int slot, byte[] record, int flags) {
+    int dataStart = getDataStart(page) - storedLength(record.length);
+    page.writeBytes(dataStart, record.length, record);
+    setDataStart(page, dataStart);
+    setEntry(page, slot, (dataStart << 16) | flags | record.length);
+  }
+
+  private void setSlotUsed(Page page, int slot, boolean used) {
+    byte b = page.readByte(slot / 8);
+    byte mask = (byte) (1 << (7 - slot % 8));
+    page.writeByte(slot / 8, used ? (byte) (b | mask) : (byte) (b & ~mask));
+  }
+
+  private int getNumEntries(Page page) {
+    return page.readInt(this.bitmapSize);
+  }
+
+  private void setNumEntries(Page page, int numEntries) {
+    page.writeInt(this.bitmapSize, numEntries);
+  }
+
+  private int getDataStart(Page page) {
+    int dataStart = page.readInt(this.bitmapSize + 4);
+    // a freshly allocated page is all zeros
+    return dataStart == 0 ? Page.pageSize : dataStart;
+  }
+
+  private void setDataStart(Page page, int dataStart) {
+    page.writeInt(this.bitmapSize + 4, dataStart);
+  }
+
+  private int entryPosition(int slot) {
+    return this.bitmapSize + 8 + 4 * slot;
+  }
+
+  private int getEntry(Page page, int slot) {
+    return page.readInt(entryPosition(slot));
+  }
+
+  private void setEntry(Page page, int slot, int entry) {
+    page.writeInt(entryPosition(slot), entry);
+  }
+
+  private static int entryOffset(int entry) {
+    return entry >>> 16;
+  }
+
+  private static int storedLength(int length) {
+    return Math.max(MIN_RECORD_SIZE, length);
+  }
+}
@@ -13,14 +13,24 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.zip.CRC32;
 
 import java.util.NoSuchElementException;
 import java.util.Iterator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 
 /**
  * A database table. Allows the user to add, delete, update, and get records.
@@ -28,6 +38,16 @@ import java.io.Closeable;
  * in the page allocator is a header page that serializes the schema, and each
  * subsequent page is a data page containing the table records.
  *
+ * Records are stored in one of two formats, chosen when the table is created. FIXED pages hold an
+ * array of fixed-width records behind the slot bitmap. SLOTTED pages hold variable-length records
+ * with strings stored without their padding, located through a slot directory (see SlottedPage).
+ * RecordIDs are (page number, slot number) pairs in both formats.
+ *
+ * The record count, free pages and stats of a table are also saved to a metadata file next to
+ * the table file by writeMetadata, so that reopening the table can load them instead of scanning
+ * every page. The file is deleted as soon as the table is modified, so a metadata file that
+ * exists always describes the table; if it is missing or fails validation the table is scanned.
+ *
  * Properties:
  * `schema`: the Schema (column names and column types) for this table
  * `freePages`: a set of page numbers that correspond to allocated pages with free space
@@ -37,10 +57,21 @@ import java.io.Closeable;
  * `numEntriesPerPage`: number of records a data page of this table can hold
  * `pageHeaderSize`: physical size (in bytes) of a page header slot bitmap
  * `numRecords`: number of records currently contained in this table
+ * `format`: the record format of the data pages
+ * `metadataPathname`: the path of the metadata file of this table
+ * `metadataValid`: whether the metadata file on disk describes the current contents of this table
  */
 public class Table implements Iterable<Record>, Closeable {
   public static final String FILENAME_PREFIX = "db";
   public static final String FILENAME_EXTENSION = ".table";
+  public static final String METADATA_EXTENSION = ".meta";
+  private static final int METADATA_MAGIC = 0x4d455441;
+  private static final int METADATA_VERSION = 1;
+
+  public enum RecordFormat {
+    FIXED,
+    SLOTTED
+  }
 
   private Schema schema;
   private TreeSet<Integer> freePages;
@@ -53,6 +84,10 @@ public class Table implements Iterable<Record>, Closeable {
   private int numEntriesPerPage;
   private int pageHeaderSize;
   private long numRecords;
+  private RecordFormat format;
+  private SlottedPage slottedPage;
+  private String metadataPathname;
+  private boolean metadataValid;
 
   public Table(String tableName) {
     this(tableName, FILENAME_PREFIX);
@@ -62,13 +97,19 @@ public class Table implements Iterable<Record>, Closeable {
     this.tableName = tableName;
 
     String pathname = Paths.get(filenamePrefix, tableName + FILENAME_EXTENSION).toString();
+    this.metadataPathname = Paths.get(filenamePrefix, tableName + METADATA_EXTENSION).toString();
     this.allocator = new PageAllocator(pathname, false);
     this.readHeaderPage();
+    this.setEntryCounts();
+
+    this.metadataValid = this.readMetadata();
+    if (this.metadataValid) {
+      return;
+    }
 
     this.stats = new TableStats(this.schema);
 
     this.freePages = new TreeSet<Integer>();
-    this.setEntryCounts();
     Iterator<Page> pIter = this.allocator.iterator();
     pIter.next();
 
@@ -78,34 +119,16 @@ public class Table implements Iterable<Record>, Closeable {
       Page p = pIter.next();
 
       // add all records in this page to TableStats
-      int entryNum = 0;
-      byte[] header = this.readPageHeader(p);
-      while (entryNum < this.numEntriesPerPage) {
-        byte b = header[entryNum/8];
-        int bitOffset = 7 - (entryNum % 8);
-        byte mask = (byte) (1 << bitOffset);
-
-        byte value = (byte) (b & mask);
-        if (value != 0) {
-          int entrySize = this.schema.getEntrySize();
-
-          int offset = this.pageHeaderSize + (entrySize * entryNum);
-          byte[] bytes = p.readBytes(offset, entrySize);
-
-          Record record = this.schema.decode(bytes);
-          entryNum++;
-
-          this.stats.addRecord(record);
-        }
-
-        entryNum++;
+      SlotBitmap header = new SlotBitmap(this.readPageHeader(p));
+      for (int entryNum = header.nextSetSlot(0); entryNum != -1; entryNum = header.nextSetSlot(entryNum + 1)) {
+        this.stats.addRecord(this.readRecord(p, entryNum));
       }
 
       if (spaceOnPage(p)) {
         this.freePages.add(p.getPageNum());
       }
 
-      freshCountRecords += numValidEntries(p);
+      freshCountRecords += header.cardinality();
     }
 
     this.numRecords = freshCountRecords;
@@ -123,7 +146,21 @@ public class Table implements Iterable<Record>, Closeable {
    * @param filenamePrefix the prefix where the table's files will be created
    */
   public Table(Schema schema, String tableName, String filenamePrefix) {
+    this(schema, tableName, filenamePrefix, RecordFormat.FIXED);
+  }
+
+  /**
+   * This constructor is used for creating a table with the given record format in some specified
+   * directory.
+   *
+   * @param schema the schema for this table
+   * @param tableName the name of the table
+   * @param filenamePrefix the prefix where the table's files will be created
+   * @param format the format records are stored in
+   */
+  public Table(Schema schema, String tableName, String filenamePrefix, RecordFormat format) {
     this.schema = schema;
+    this.format = format;
     this.tableName = tableName;
     this.stats = new TableStats(this.schema);
 
@@ -131,6 +168,11 @@ public class Table implements Iterable<Record>, Closeable {
     String pathname = Paths.get(filenamePrefix, tableName + FILENAME_EXTENSION).toString();
     this.allocator = new PageAllocator(pathname, true);
 
+    // a metadata file left behind by an earlier table of the same name does not describe this one
+    this.metadataPathname = Paths.get(filenamePrefix, tableName + METADATA_EXTENSION).toString();
+    new File(this.metadataPathname).delete();
+    this.metadataValid = false;
+
     this.setEntryCounts();
 
     this.writeHeaderPage();
@@ -140,14 +182,150 @@ public class Table implements Iterable<Record>, Closeable {
     allocator.close();
   }
 
+  /**
+   * Saves the record count, free pages and stats of this table to its metadata file. The file
+   * only describes pages that are on disk, so this should be called once they have been flushed,
+   * after close or a checkpoint. If the file cannot be written the table is scanned the next time
+   * it is opened.
+   */
+  public void writeMetadata() {
+    if (this.metadataValid) {
+      return;
+    }
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(METADATA_MAGIC);
+      out.writeInt(METADATA_VERSION);
+      out.writeInt(this.allocator.getNumPages());
+      out.writeInt(this.format.ordinal());
+      out.writeInt(this.schema.getFieldTypes().size());
+      out.writeInt(this.schema.getEntrySize());
+      out.writeLong(this.numRecords);
+      out.writeInt(this.freePages.size());
+      for (int pageNum : this.freePages) {
+        out.writeInt(pageNum);
+      }
+      this.stats.writeTo(out);
+
+      CRC32 checksum = new CRC32();
+      checksum.update(bytes.toByteArray());
+      out.writeLong(checksum.getValue());
+      out.flush();
+
+      // written aside and renamed so that a partly written file is never read
+      Path path = Paths.get(this.metadataPathname);
+      Path tempPath = Paths.get(this.metadataPathname + ".tmp");
+      Files.write(tempPath, bytes.toByteArray());
+      Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      this.metadataValid = true;
+    } catch (IOException e) {
+      new File(this.metadataPathname).delete();
+    }
+  }
+
+  /**
+   * Loads the record count, free pages and stats of this table from its metadata file.
+   *
+   * @return true if the file exists and matches this table, false if the table has to be scanned
+   */
+  private boolean readMetadata() {
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(Paths.get(this.metadataPathname));
+    } catch (IOException e) {
+      return false;
+    }
+    if (bytes.length < 8) {
+      return false;
+    }
+
+    CRC32 checksum = new CRC32();
+    checksum.update(bytes, 0, bytes.length - 8);
+    if (checksum.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+      return false;
+    }
+
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+      if (in.readInt() != METADATA_MAGIC
+          || in.readInt() != METADATA_VERSION
+          || in.readInt() != this.allocator.getNumPages()
+          || in.readInt() != this.format.ordinal()
+          || in.readInt() != this.schema.getFieldTypes().size()
+          || in.readInt() != this.schema.getEntrySize()) {
+        return false;
+      }
+
+      long numRecords = in.readLong();
+      TreeSet<Integer> freePages = new TreeSet<Integer>();
+      int numFreePages = in.readInt();
+      for (int i = 0; i < numFreePages; i++) {
+        freePages.add(in.readInt());
+      }
+      TableStats stats = new TableStats(this.schema);
+      stats.readFrom(in);
+
+      this.numRecords = numRecords;
+      this.freePages = freePages;
+      this.stats = stats;
+      return true;
+    } catch (IOException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Deletes the metadata file of this table before the table is modified.
+   */
+  private void invalidateMetadata() {
+    if (this.metadataValid) {
+      new File(this.metadataPathname).delete();
+      this.metadataValid = false;
+    }
+  }
+
   public Iterator<Record> iterator() {
       return new TableIterator();
   }
 
+  /**
+   * Iterates over the RecordIDs of the records of this table in page and slot order. On slotted
+   * pages a record that has been moved is reached through the RecordID of its forwarding entry,
+   * which is the one getRecord takes.
+   *
+   * @return an iterator of the RecordIDs of all records
+   */
+  public Iterator<RecordID> recordIDIterator() {
+    return new RecordIDIterator();
+  }
+
   public Iterator<Page> pageIterator() {
     return this.allocator.iterator();
   }
 
+  /**
+   * Pins a page of this table in the page cache so that it is not evicted while in use. Every
+   * call must be matched by a call to unpinPage.
+   *
+   * @param pageNum the page number to pin
+   * @return the pinned Page
+   */
+  public Page pinPage(int pageNum) {
+    return this.allocator.pin(pageNum);
+  }
+
+  /**
+   * Releases a pin taken by pinPage.
+   *
+   * @param pageNum the page number to unpin
+   * @param dirty whether the page was modified while it was pinned
+   */
+  public void unpinPage(int pageNum, boolean dirty) {
+    this.allocator.unpin(pageNum, dirty);
+  }
+
   /**
    * Add a new record to this table. The record should be added to the first
    * free slot of the first free page if one exists, otherwise a new page should
@@ -162,6 +340,19 @@ public class Table implements Iterable<Record>, Closeable {
    *         correspond to the schema of this table
    */
   public RecordID addRecord(List<DataType> values) throws DatabaseException {
+    this.invalidateMetadata();
+    if (this.format == RecordFormat.SLOTTED) {
+      try {
+        Record record_values = this.schema.verify(values);
+        RecordID rid = this.placeRecord(this.schema.encodeVariable(record_values), false);
+        this.stats.addRecord(record_values);
+        this.numRecords += 1;
+        return rid;
+      } catch (SchemaException e) {
+        throw new DatabaseException("values passed in do not correspond to the schema of this table");
+      }
+    }
+
     Page cur_page;
     int page_num;
     int offset;
@@ -175,8 +366,7 @@ public class Table implements Iterable<Record>, Closeable {
     else {
       page_num = this.freePages.pollFirst();
       cur_page = this.allocator.fetchPage(page_num);
-      byte[] page_header = this.readPageHeader(cur_page);
-      slot_number = this.getNextFreeSlotNum(0, page_header);
+      slot_number = new SlotBitmap(this.readPageHeader(cur_page)).nextClearSlot(0);
       if (slot_number == -1) {
         System.out.print("Something went wrong, no slots are free in a page with free slots");
       }
@@ -199,24 +389,49 @@ public class Table implements Iterable<Record>, Closeable {
   }
 
   /**
+   * Stores an encoded record on the first slotted page with room for it, allocating a new page if
+   * none has any.
    *
-   * @param start the first slot to check
-   * @param page_header the page header to check
-   * @return next free slot number or -1 if there isn't one
+   * @param bytes the record encoded with Schema#encodeVariable
+   * @param moved whether the record is being moved away from a forwarding slot
+   * @return the RecordID of the slot the record was stored in
    */
-  private int getNextFreeSlotNum(int start, byte[] page_header) {
-    int count = 0;
-    for (byte b : page_header) {
-      for (int mask = 0x80; mask != 0x00; mask >>>= 1) {
-        if ((b & (byte) mask) == 0) {
-          if (count >= start) {
-            return count;
-          }
+  private RecordID placeRecord(byte[] bytes, boolean moved) {
+    while (!this.freePages.isEmpty()) {
+      int page_num = this.freePages.pollFirst();
+      Page cur_page = this.allocator.fetchPage(page_num);
+      int slot_number = this.slottedPage.insert(cur_page, bytes, moved);
+      if (slot_number != -1) {
+        if (spaceOnPage(cur_page)) {
+          this.freePages.add(page_num);
         }
-        count++;
+        return new RecordID(page_num, slot_number);
       }
     }
-    return -1;
+
+    int page_num = this.allocator.allocPage();
+    Page cur_page = this.allocator.fetchPage(page_num);
+    int slot_number = this.slottedPage.insert(cur_page, bytes, moved);
+    if (slot_number == -1) {
+      throw new PageException("record does not fit on an empty page");
+    }
+    if (spaceOnPage(cur_page)) {
+      this.freePages.add(page_num);
+    }
+    return new RecordID(page_num, slot_number);
+  }
+
+  /**
+   * Adds page to this.freePages if it has room for another record and removes it otherwise.
+   *
+   * @param page the page to check
+   */
+  private void refreshFreePage(Page page) {
+    if (spaceOnPage(page)) {
+      this.freePages.add(page.getPageNum());
+    } else {
+      this.freePages.remove(page.getPageNum());
+    }
   }
 
   /**
@@ -229,10 +444,23 @@ public class Table implements Iterable<Record>, Closeable {
    */
   public Record deleteRecord(RecordID rid) throws DatabaseException {
     Record old_record = this.getRecord(rid);
-    writeBitToHeader(this.allocator.fetchPage(rid.getPageNum()), rid.getSlotNumber(), (byte) 0);
+    this.invalidateMetadata();
+    if (this.format == RecordFormat.SLOTTED) {
+      Page cur_page = this.allocator.fetchPage(rid.getPageNum());
+      if (this.slottedPage.isForward(cur_page, rid.getSlotNumber())) {
+        RecordID target = this.slottedPage.readForward(cur_page, rid.getSlotNumber());
+        Page target_page = this.allocator.fetchPage(target.getPageNum());
+        this.slottedPage.delete(target_page, target.getSlotNumber());
+        this.refreshFreePage(target_page);
+      }
+      this.slottedPage.delete(cur_page, rid.getSlotNumber());
+      this.refreshFreePage(cur_page);
+    } else {
+      writeBitToHeader(this.allocator.fetchPage(rid.getPageNum()), rid.getSlotNumber(), (byte) 0);
+      this.freePages.add(rid.getPageNum());
+    }
     this.stats.removeRecord(old_record);
     this.numRecords -= 1;
-    this.freePages.add(rid.getPageNum());
     return old_record;
   }
 
@@ -248,9 +476,34 @@ public class Table implements Iterable<Record>, Closeable {
       throw new DatabaseException("rid does not correspond to a valid record");
     }
     Page cur_page = this.allocator.fetchPage(rid.getPageNum());
+    if (this.format == RecordFormat.SLOTTED) {
+      if (this.slottedPage.isForward(cur_page, rid.getSlotNumber())) {
+        RecordID target = this.slottedPage.readForward(cur_page, rid.getSlotNumber());
+        return this.readRecord(this.allocator.fetchPage(target.getPageNum()), target.getSlotNumber());
+      }
+      return this.readRecord(cur_page, rid.getSlotNumber());
+    }
+    // callers such as updateRecord hold on to the old record, so decode it rather than returning
+    // a view of the slot
     int offset = this.pageHeaderSize + rid.getSlotNumber() * this.schema.getEntrySize();
-    byte[] encoded_record = cur_page.readBytes(offset, this.schema.getEntrySize());
-    return this.schema.decode(encoded_record);
+    return this.schema.decode(cur_page.readBytes(offset, this.schema.getEntrySize()));
+  }
+
+  /**
+   * Reads the record stored in a slot of a data page, as set in the header returned by
+   * readPageHeader. Unlike getRecord, this does not check that the slot holds a record. Records of
+   * FIXED tables are returned as a LazyRecord view of the page.
+   *
+   * @param page the data page to read from
+   * @param slot the slot number of the record
+   * @return the Record in the slot
+   */
+  public Record readRecord(Page page, int slot) {
+    if (this.format == RecordFormat.SLOTTED) {
+      return this.schema.decodeVariable(this.slottedPage.read(page, slot));
+    }
+    int offset = this.pageHeaderSize + slot * this.schema.getEntrySize();
+    return new LazyRecord(page, offset, this.schema);
   }
 
   /**
@@ -268,6 +521,16 @@ public class Table implements Iterable<Record>, Closeable {
       throw new DatabaseException("rid does not correspond to a valid record");
     }
     Record old_record = this.getRecord(rid);
+    this.invalidateMetadata();
+    if (this.format == RecordFormat.SLOTTED) {
+      try {
+        byte[] bytes = this.schema.encodeVariable(this.schema.verify(values));
+        this.updateSlottedRecord(bytes, rid);
+      } catch (SchemaException e) {
+        throw new DatabaseException("values don't match schema");
+      }
+      return old_record;
+    }
     try {
       Page cur_page = this.allocator.fetchPage(rid.getPageNum());
       int slot_number = rid.getSlotNumber();
@@ -281,6 +544,33 @@ public class Table implements Iterable<Record>, Closeable {
     return old_record;
   }
 
+  /**
+   * Replaces the record at rid on a slotted page. A record that no longer fits on its page is moved
+   * to another one, leaving a forwarding entry behind so that rid stays valid.
+   *
+   * @param bytes the new record encoded with Schema#encodeVariable
+   * @param rid the RecordID of the record to update
+   */
+  private void updateSlottedRecord(byte[] bytes, RecordID rid) {
+    Page cur_page = this.allocator.fetchPage(rid.getPageNum());
+    int slot_number = rid.getSlotNumber();
+
+    if (this.slottedPage.isForward(cur_page, slot_number)) {
+      RecordID target = this.slottedPage.readForward(cur_page, slot_number);
+      Page target_page = this.allocator.fetchPage(target.getPageNum());
+      if (!this.slottedPage.update(target_page, target.getSlotNumber(), bytes)) {
+        // move it on again rather than chaining forwarding entries
+        this.slottedPage.delete(target_page, target.getSlotNumber());
+        this.refreshFreePage(target_page);
+        this.slottedPage.forward(cur_page, slot_number, this.placeRecord(bytes, true));
+      }
+      this.refreshFreePage(target_page);
+    } else if (!this.slottedPage.update(cur_page, slot_number, bytes)) {
+      this.slottedPage.forward(cur_page, slot_number, this.placeRecord(bytes, true));
+    }
+    this.refreshFreePage(cur_page);
+  }
+
   public int getNumEntriesPerPage() {
     return this.numEntriesPerPage;
   }
@@ -316,15 +606,17 @@ public class Table implements Iterable<Record>, Closeable {
       int page_num = rid.getPageNum();
       int slot_num = rid.getSlotNumber();
       Page cur_page = this.allocator.fetchPage(page_num);
-      byte[] header = this.readPageHeader(cur_page);
+      // the raw bitmap, since forwarding entries are left out of readPageHeader on slotted pages
+      byte[] header = cur_page.readBytes(0, this.pageHeaderSize);
       int byte_num = slot_num / 8;
       byte block = header[byte_num];
       int bitOffset = 7 - (slot_num % 8);
       byte byte_slot = (byte) (0x01 << bitOffset);
-      if ((block & byte_slot) == byte_slot) {
-        return true;
+      if ((block & byte_slot) != byte_slot) {
+        return false;
       }
-      return false;
+      // a moved record is only reachable through the RecordID of its forwarding entry
+      return this.format != RecordFormat.SLOTTED || !this.slottedPage.isMoved(cur_page, slot_num);
     } catch (PageException e) {
       throw new DatabaseException("rid does not reference an existing data page slot");
     }
@@ -340,6 +632,12 @@ public class Table implements Iterable<Record>, Closeable {
    * Should set this.pageHeaderSize and this.numEntriesPerPage.
    */
   private void setEntryCounts() {
+    if (this.format == RecordFormat.SLOTTED) {
+      this.pageHeaderSize = SlottedPage.computeBitmapSize(this.schema);
+      this.numEntriesPerPage = this.pageHeaderSize * 8;
+      this.slottedPage = new SlottedPage(this.pageHeaderSize, this.numEntriesPerPage);
+      return;
+    }
     int eight_entries = this.schema.getEntrySize() * 8 + 1;
     int eigth_num_entries = Page.pageSize / eight_entries;
     this.pageHeaderSize = eigth_num_entries;
@@ -353,41 +651,15 @@ public class Table implements Iterable<Record>, Closeable {
    * @return true if there exists free space, otherwise false
    */
   private boolean spaceOnPage(Page p) {
-    byte[] header = this.readPageHeader(p);
-
-    for (byte b : header) {
-      if (b != (byte) 0xFF) {
-        return true;
-      }
-    }
-
-    return false;
-  }
-
-  /**
-   * Checks how many valid record entries are in the given page.
-   *
-   * @param p the page to check
-   * @return number of record entries in p
-   */
-  private int numValidEntries(Page p) {
-    byte[] header = this.readPageHeader(p);
-    int count = 0;
-
-    for (byte b : header) {
-      for (int mask = 0x01; mask != 0x100; mask <<= 1) {
-        if ((b & (byte) mask) != 0) {
-          count++;
-        }
-      }
+    if (this.format == RecordFormat.SLOTTED) {
+      return this.slottedPage.hasSpaceFor(p, this.schema.getMaxVariableEntrySize());
     }
-
-    return count;
+    return new SlotBitmap(this.readPageHeader(p)).nextClearSlot(0) != -1;
   }
 
   /**
-   * Utility method to write the header page of the table. The only information written into
-   * the header page is the table's schema.
+   * Utility method to write the header page of the table. The header page holds the table's
+   * schema followed by its record format.
    */
   private void writeHeaderPage() {
     int numBytesWritten = 0;
@@ -418,6 +690,8 @@ public class Table implements Iterable<Record>, Closeable {
         numBytesWritten += 4;
       }
     }
+
+    headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(this.format.ordinal()).array());
   }
 
   /**
@@ -471,6 +745,10 @@ public class Table implements Iterable<Record>, Closeable {
 
     this.schema = new Schema(fieldNames, fieldTypes);
 
+    // tables written before record formats existed have zeros here, which is FIXED
+    int formatOrdinal = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+    this.format = RecordFormat.values()[formatOrdinal];
+
   }
 
   /**
@@ -500,15 +778,23 @@ public class Table implements Iterable<Record>, Closeable {
   }
 
   /**
-   * Read the slot header of a page.
+   * Read the slot header of a page. On a slotted page, forwarding entries are left out of the
+   * header since their records are read from the slots they were moved to.
    *
    * @param page the page to read from
    * @return a byte[] with the slot header
    */
   public byte[] readPageHeader(Page page) {
+    if (this.format == RecordFormat.SLOTTED) {
+      return this.slottedPage.readScanBitmap(page);
+    }
     return page.readBytes(0, this.pageHeaderSize);
   }
 
+  public RecordFormat getRecordFormat() {
+    return this.format;
+  }
+
   public int getPageHeaderSize() {
     return this.pageHeaderSize;
   }
@@ -526,7 +812,7 @@ public class Table implements Iterable<Record>, Closeable {
   private class TableIterator implements Iterator<Record> {
     private Iterator<Page> p_iter;
     private Page cur_page;
-    private byte[] cur_page_header;
+    private SlotBitmap cur_page_header;
     private int next_slot;
 
     public TableIterator() {
@@ -534,7 +820,7 @@ public class Table implements Iterable<Record>, Closeable {
       p_iter.next();
       if (p_iter.hasNext()) {
         this.cur_page = p_iter.next();
-        this.cur_page_header = Table.this.readPageHeader(this.cur_page);
+        this.cur_page_header = new SlotBitmap(Table.this.readPageHeader(this.cur_page));
       }
       this.next_slot = 0;
     }
@@ -548,41 +834,18 @@ public class Table implements Iterable<Record>, Closeable {
       if (cur_page == null) {
         return false;
       }
-      if (this.getNextFilledSlotNum(this.next_slot, cur_page_header) >= 0) {
-        return true;
-      }
-      else {
-        while(this.p_iter.hasNext()) {
-          this.cur_page = p_iter.next();
-          this.cur_page_header = Table.this.readPageHeader(this.cur_page);
-          this.next_slot = 0;
-          if (this.getNextFilledSlotNum(this.next_slot, cur_page_header) >= 0) {
-            return true;
-          }
-        }
+      // leaves next_slot at the next filled slot so that next does not have to search again
+      int slot = this.cur_page_header.nextSetSlot(this.next_slot);
+      while (slot == -1 && this.p_iter.hasNext()) {
+        this.cur_page = p_iter.next();
+        this.cur_page_header = new SlotBitmap(Table.this.readPageHeader(this.cur_page));
+        slot = this.cur_page_header.nextSetSlot(0);
       }
-      return false;
-    }
-
-    /**
-     *
-     * @param start slot number to start checking at
-     * @param page_header page header to check for records
-     * @return next valid slot number or -1 if there are none
-     */
-    private int getNextFilledSlotNum(int start, byte[] page_header) {
-      int count = 0;
-      for (byte b : page_header) {
-        for (int mask = 0x80; mask != 0x00; mask >>>= 1) {
-          if ((b & (byte) mask) == (byte) mask) {
-            if (count >= start) {
-              return count;
-            }
-          }
-          count++;
-        }
+      if (slot == -1) {
+        return false;
       }
-      return -1;
+      this.next_slot = slot;
+      return true;
     }
 
     /**
@@ -595,15 +858,67 @@ public class Table implements Iterable<Record>, Closeable {
       if (!this.hasNext()) {
         throw new NoSuchElementException("no more records to yield");
       }
-      int page_num = this.cur_page.getPageNum();
-      int slot_num = this.getNextFilledSlotNum(this.next_slot, this.cur_page_header);
+      int slot_num = this.next_slot;
       this.next_slot = slot_num + 1;
-      try {
-        return Table.this.getRecord(new RecordID(page_num, slot_num));
-      } catch (DatabaseException e) {
-        System.out.println("Database Exception when trying to get Record");
+      return Table.this.readRecord(this.cur_page, slot_num);
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * An implementation of Iterator that provides an iterator interface over the
+   * RecordIDs of the records in this table.
+   */
+  private class RecordIDIterator implements Iterator<RecordID> {
+    private Iterator<Page> p_iter;
+    private Page cur_page;
+    private SlotBitmap cur_page_header;
+    private int next_slot;
+
+    public RecordIDIterator() {
+      this.p_iter = Table.this.allocator.iterator();
+      p_iter.next();
+      if (p_iter.hasNext()) {
+        this.setPage(p_iter.next());
+      }
+    }
+
+    private void setPage(Page page) {
+      this.cur_page = page;
+      // the raw bitmap, since forwarding entries are left out of readPageHeader on slotted pages
+      this.cur_page_header = new SlotBitmap(page.readBytes(0, Table.this.pageHeaderSize));
+      this.next_slot = 0;
+    }
+
+    public boolean hasNext() {
+      while (cur_page != null) {
+        int slot = this.cur_page_header.nextSetSlot(this.next_slot);
+        while (slot != -1 && Table.this.format == RecordFormat.SLOTTED
+            && Table.this.slottedPage.isMoved(this.cur_page, slot)) {
+          slot = this.cur_page_header.nextSetSlot(slot + 1);
+        }
+        if (slot != -1) {
+          this.next_slot = slot;
+          return true;
+        }
+        if (!this.p_iter.hasNext()) {
+          return false;
+        }
+        this.setPage(this.p_iter.next());
       }
-      return null;
+      return false;
+    }
+
+    public RecordID next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException("no more records to yield");
+      }
+      int slot_num = this.next_slot;
+      this.next_slot = slot_num + 1;
+      return new RecordID(this.cur_page.getPageNum(), slot_num);
     }
 
     public void remove() {
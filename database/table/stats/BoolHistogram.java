@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -170,4 +173,17 @@ public class BoolHistogram implements Histogram<Boolean> {
 
     return numDistinct;
   }
+
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(this.buckets.get(0).getCount());
+    out.writeInt(this.buckets.get(1).getCount());
+  }
+
+  public void readFrom(DataInputStream in) throws IOException {
+    this.buckets = new ArrayList<Bucket<Boolean>>();
+    this.buckets.add(new Bucket<Boolean>(true));
+    this.buckets.get(0).increment(in.readInt());
+    this.buckets.add(new Bucket<Boolean>(false));
+    this.buckets.get(1).increment(in.readInt());
+  }
 }
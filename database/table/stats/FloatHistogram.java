@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -69,4 +72,12 @@ public class FloatHistogram implements Histogram<Float> {
   public int getNumDistinct() {
     return this.histogram.getNumDistinct();
   }
+
+  public void writeTo(DataOutputStream out) throws IOException {
+    this.histogram.writeTo(out);
+  }
+
+  public void readFrom(DataInputStream in) throws IOException {
+    this.histogram.readFrom(in);
+  }
 }
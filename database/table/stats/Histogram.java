@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.List;
 
 import edu.berkeley.cs186.database.datatypes.DataType;
@@ -47,4 +50,20 @@ public interface Histogram<T> {
 
   Histogram<T> copyWithPredicate(PredicateOperator predicate,
                                  DataType value);
+
+  /**
+   * Writes the state of this Histogram so that readFrom can restore it.
+   *
+   * @param out the stream to write to
+   * @throws IOException
+   */
+  void writeTo(DataOutputStream out) throws IOException;
+
+  /**
+   * Replaces the state of this Histogram with one written by writeTo.
+   *
+   * @param in the stream to read from
+   * @throws IOException
+   */
+  void readFrom(DataInputStream in) throws IOException;
 }
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -316,6 +319,38 @@ public class IntHistogram implements Histogram<Integer>{
     }
   }
 
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(this.rangeMin);
+    out.writeInt(this.rangeMax);
+    out.writeInt(this.buckets.size());
+    for (Bucket<Integer> bucket : this.buckets) {
+      out.writeInt(bucket.getStart());
+      out.writeInt(bucket.getEnd());
+      out.writeInt(bucket.getCount());
+    }
+    out.writeInt(this.entrySet.size());
+    for (int entry : this.entrySet) {
+      out.writeInt(entry);
+    }
+  }
+
+  public void readFrom(DataInputStream in) throws IOException {
+    this.rangeMin = in.readInt();
+    this.rangeMax = in.readInt();
+    this.buckets = new ArrayList<Bucket<Integer>>();
+    int numBuckets = in.readInt();
+    for (int i = 0; i < numBuckets; i++) {
+      Bucket<Integer> bucket = new Bucket<Integer>(in.readInt(), in.readInt());
+      bucket.increment(in.readInt());
+      this.buckets.add(bucket);
+    }
+    this.entrySet = new HashSet<Integer>();
+    int numEntries = in.readInt();
+    for (int i = 0; i < numEntries; i++) {
+      this.entrySet.add(in.readInt());
+    }
+  }
+
   /**
    * Refactors the buckets backing this IntHistogram to allow
    * the given value to belong in a bucket of this IntHistogram.
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -185,4 +188,29 @@ public class StringHistogram implements Histogram<String> {
       return entrySet.size();
     }
   }
+
+  public void writeTo(DataOutputStream out) throws IOException {
+    // the buckets are always one per character of alphaNumeric, so only their counts are written
+    for (Bucket<String> bucket : this.buckets) {
+      out.writeInt(bucket.getCount());
+    }
+    out.writeInt(this.entrySet.size());
+    for (String entry : this.entrySet) {
+      out.writeUTF(entry);
+    }
+  }
+
+  public void readFrom(DataInputStream in) throws IOException {
+    this.buckets = new ArrayList<Bucket<String>>();
+    for (int i = 0; i < alphaNumeric.length(); i++) {
+      Bucket<String> bucket = new Bucket<String>(alphaNumeric.substring(i, i + 1));
+      bucket.increment(in.readInt());
+      this.buckets.add(bucket);
+    }
+    this.entrySet = new HashSet<String>();
+    int numEntries = in.readInt();
+    for (int i = 0; i < numEntries; i++) {
+      this.entrySet.add(in.readUTF());
+    }
+  }
 }
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -155,6 +158,34 @@ public class TableStats {
     }
   }
 
+  /**
+   * Writes the record count and histograms of these stats so that readFrom can restore them.
+   *
+   * @param out the stream to write to
+   * @throws IOException
+   */
+  public void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(this.numRecords);
+    for (Histogram<?> histogram : this.histograms) {
+      histogram.writeTo(out);
+    }
+  }
+
+  /**
+   * Replaces the record count and histograms of these stats with ones written by writeTo for the
+   * same schema.
+   *
+   * @param in the stream to read from
+   * @throws IOException
+   */
+  public void readFrom(DataInputStream in) throws IOException {
+    this.numRecords = in.readInt();
+    this.numPages = this.calculateNumPages();
+    for (Histogram<?> histogram : this.histograms) {
+      histogram.readFrom(in);
+    }
+  }
+
   /**
    * Gets the number of records the target table contains.
    *